@@ -0,0 +1,128 @@
+///usr/bin/env jbang "$0" "$@" ; exit $?
+//DEPS org.openjdk.jmh:jmh-core:1.37
+//DEPS org.openjdk.jmh:jmh-generator-annprocess:1.37
+//SOURCES ../catalog_check_updates.java
+//JAVA 17
+//DESCRIPTION Compares the exclude-versions matching of catalog_check_updates with the former String.matches loop
+
+// JMH does not support benchmarks in the default package
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class exclude_versions_bench {
+
+    // The scripts live in the default package, which can only be reached reflectively from here
+    private static final MethodHandle NEW_EXCLUDED_VERSIONS;
+
+    private static final MethodHandle MATCHES;
+
+    static {
+        try {
+            Class<?> excludedVersions = Class.forName("catalog_check_updates$ExcludedVersions");
+            Constructor<?> constructor = excludedVersions.getDeclaredConstructor(ArrayNode.class);
+            constructor.setAccessible(true);
+            Method matches = excludedVersions.getDeclaredMethod("matches", String.class);
+            matches.setAccessible(true);
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            NEW_EXCLUDED_VERSIONS = lookup.unreflectConstructor(constructor)
+                    .asType(MethodType.methodType(Object.class, ArrayNode.class));
+            MATCHES = lookup.unreflect(matches)
+                    .asType(MethodType.methodType(boolean.class, Object.class, String.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    @Param({ "5000" })
+    int versionCount;
+
+    @Param({ "5", "25" })
+    int excludeCount;
+
+    List<String> versions;
+
+    ArrayNode excludeVersions;
+
+    public static void main(String... args) throws Exception {
+        org.openjdk.jmh.Main.main(args.length == 0 ? new String[] { exclude_versions_bench.class.getSimpleName() } : args);
+    }
+
+    @Setup
+    public void setup() {
+        // Same shape as a busy maven-metadata.xml: finals, CRs and alphas over many minors
+        versions = new ArrayList<>(versionCount);
+        for (int i = 0; versions.size() < versionCount; i++) {
+            int major = i / 500;
+            int minor = (i / 20) % 25;
+            int micro = i % 20;
+            versions.add(major + "." + minor + "." + micro + ".Final");
+            versions.add(major + "." + minor + "." + micro + ".CR1");
+            versions.add(major + "." + minor + "." + micro + "-alpha" + micro);
+        }
+        versions = versions.subList(0, versionCount);
+        excludeVersions = JsonNodeFactory.instance.arrayNode();
+        for (int i = 0; i < excludeCount; i++) {
+            switch (i % 3) {
+                case 0 -> excludeVersions.add(i + ".0.1.Final");
+                case 1 -> excludeVersions.add(".*-alpha" + i);
+                default -> excludeVersions.add(i + "\\.1\\..*");
+            }
+        }
+    }
+
+    @Benchmark
+    public int stringMatches() {
+        int excluded = 0;
+        for (String version : versions) {
+            for (JsonNode node : excludeVersions) {
+                if (version.matches(node.asText())) {
+                    excluded++;
+                    break;
+                }
+            }
+        }
+        return excluded;
+    }
+
+    @Benchmark
+    public int excludedVersions() throws Throwable {
+        // Compiled once per descriptor, as in populateVersions
+        Object excludedVersions = (Object) NEW_EXCLUDED_VERSIONS.invokeExact(excludeVersions);
+        int excluded = 0;
+        for (String version : versions) {
+            if ((boolean) MATCHES.invokeExact(excludedVersions, version)) {
+                excluded++;
+            }
+        }
+        return excluded;
+    }
+}
@@ -0,0 +1,184 @@
+///usr/bin/env jbang "$0" "$@" ; exit $?
+//DEPS info.picocli:picocli:4.7.7
+//JAVA 17+
+//DESCRIPTION Measures the time to first request of the catalog scripts, with and without a class data sharing archive
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+
+import com.sun.net.httpserver.HttpServer;
+
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+import static java.lang.System.out;
+
+/**
+ * Starts each script through jbang with {@code --no-cds}, then with {@code --cds}, and reports how long it takes
+ * until the script does its first piece of real work:
+ * <ul>
+ * <li>{@code catalog_publish} and {@code catalog_check_updates} get a working directory with a single extension
+ * whose maven-repository is a local stub server, the time is taken when the first HTTP request reaches it</li>
+ * <li>{@code fmt} gets a directory with a single unformatted source, the time is taken when the process exits</li>
+ * </ul>
+ * Run it from the root of the catalog:
+ *
+ * <pre>
+ * jbang benchmarks/startup_bench.java --runs 10
+ * </pre>
+ *
+ * The first run of each mode is not measured: it builds the script and, with {@code --cds}, dumps the archive.
+ */
+@Command(name = "startup_bench", mixinStandardHelpOptions = true, description = "Measures the startup of the catalog scripts with and without CDS")
+class startup_bench implements Callable<Integer> {
+
+    private static final String UNFORMATTED_SOURCE = "public class Hello { public static void main(String[] args) { System.out.println(\"Hello\"); } }\n";
+
+    @Parameters(paramLabel = "<script>", description = "Scripts to measure. Defaults to catalog_publish, catalog_check_updates and fmt")
+    List<String> scripts = List.of("catalog_publish", "catalog_check_updates", "fmt");
+
+    @Option(names = { "-n", "--runs" }, description = "Measured runs per script and mode", defaultValue = "5")
+    int runs;
+
+    @Option(names = { "-d", "--scripts-dir" }, description = "Directory holding the scripts", defaultValue = ".")
+    Path scriptsDir;
+
+    @Option(names = { "--jbang" }, description = "The jbang executable", defaultValue = "jbang")
+    String jbang;
+
+    @Option(names = { "--timeout" }, description = "Seconds after which a run is aborted", defaultValue = "300")
+    int timeout;
+
+    private HttpServer stub;
+
+    private volatile CompletableFuture<Long> firstRequest;
+
+    public static void main(String... args) {
+        System.exit(new CommandLine(new startup_bench()).execute(args));
+    }
+
+    @Override
+    public Integer call() throws Exception {
+        stub = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        stub.createContext("/", exchange -> {
+            firstRequest.complete(System.nanoTime());
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+        });
+        stub.start();
+        try {
+            out.printf("%-24s %-8s %10s %10s %10s%n", "script", "mode", "median ms", "min ms", "max ms");
+            for (String script : scripts) {
+                for (String mode : List.of("--no-cds", "--cds")) {
+                    List<Long> timings = new ArrayList<>();
+                    // The first run builds the jar and, with --cds, dumps the archive
+                    for (int i = 0; i <= runs; i++) {
+                        long elapsed = run(script, mode);
+                        if (i > 0) {
+                            timings.add(elapsed);
+                        }
+                    }
+                    Collections.sort(timings);
+                    out.printf("%-24s %-8s %10d %10d %10d%n", script, mode, timings.get(timings.size() / 2),
+                            timings.get(0), timings.get(timings.size() - 1));
+                }
+            }
+        } finally {
+            stub.stop(0);
+        }
+        return 0;
+    }
+
+    /**
+     * @return the time to first request in milliseconds
+     */
+    private long run(String script, String mode) throws IOException, InterruptedException, TimeoutException {
+        Path workingDirectory = Files.createTempDirectory("startup-bench");
+        List<String> command = new ArrayList<>(List.of(jbang, mode,
+                scriptsDir.resolve(script + ".java").toAbsolutePath().toString()));
+        String repository = "http://localhost:" + stub.getAddress().getPort() + "/maven2/";
+        switch (script) {
+            case "catalog_publish":
+                writeExtension(workingDirectory, repository);
+                command.addAll(List.of("-w", workingDirectory.toString(), "-u", repository, "-t", "bench"));
+                break;
+            case "catalog_check_updates":
+                writeExtension(workingDirectory, repository);
+                git(workingDirectory, "init", "-q");
+                command.addAll(List.of("-w", workingDirectory.toString(), "-n"));
+                break;
+            case "fmt":
+                Files.writeString(workingDirectory.resolve("Hello.java"), UNFORMATTED_SOURCE);
+                command.add("--no-cache");
+                break;
+            default:
+                throw new CommandLine.ParameterException(new CommandLine(this), "Unknown script " + script);
+        }
+        firstRequest = new CompletableFuture<>();
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command)
+                .directory(workingDirectory.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        try {
+            if (!process.waitFor(timeout, TimeUnit.SECONDS)) {
+                throw new TimeoutException(String.join(" ", command) + " did not finish in " + timeout + "s");
+            }
+            long end = firstRequest.isDone() ? firstRequest.join() : System.nanoTime();
+            if (!script.equals("fmt") && !firstRequest.isDone()) {
+                throw new IllegalStateException(String.join(" ", command) + " exited with " + process.exitValue()
+                        + " without sending any request");
+            }
+            return TimeUnit.NANOSECONDS.toMillis(end - start);
+        } finally {
+            process.destroyForcibly();
+            delete(workingDirectory);
+        }
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    private static void writeExtension(Path workingDirectory, String repository) throws IOException {
+        // Both scripts list the platforms before the extensions
+        Files.createDirectories(workingDirectory.resolve("platforms"));
+        Path extensions = Files.createDirectories(workingDirectory.resolve("extensions"));
+        Files.writeString(extensions.resolve("startup-bench.yaml"), String.join("\n",
+                "group-id: io.quarkiverse.bench",
+                "artifact-id: quarkus-startup-bench",
+                "maven-repository: " + repository,
+                "versions:",
+                "  - 1.0.0",
+                ""), StandardCharsets.UTF_8);
+    }
+
+    private static void git(Path directory, String... args) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add("git");
+        command.addAll(List.of(args));
+        Process process = new ProcessBuilder(command).directory(directory.toFile()).inheritIO().start();
+        if (process.waitFor() != 0) {
+            throw new IOException(String.join(" ", command) + " failed with exit code " + process.exitValue());
+        }
+    }
+}
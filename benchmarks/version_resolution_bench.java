@@ -0,0 +1,237 @@
+///usr/bin/env jbang "$0" "$@" ; exit $?
+//DEPS org.openjdk.jmh:jmh-core:1.37
+//DEPS org.openjdk.jmh:jmh-generator-annprocess:1.37
+//SOURCES ../catalog_check_updates.java
+//JAVA 17
+//DESCRIPTION Measures the version resolution of catalog_check_updates on maven-metadata.xml documents of increasing size
+
+// JMH does not support benchmarks in the default package
+package benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import org.apache.maven.artifact.repository.metadata.Metadata;
+import org.apache.maven.artifact.repository.metadata.Versioning;
+import org.apache.maven.artifact.repository.metadata.io.xpp3.MetadataXpp3Reader;
+import org.apache.maven.artifact.repository.metadata.io.xpp3.MetadataXpp3Writer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks the CPU-bound part of {@code catalog_check_updates}: everything {@code populateVersions} does once
+ * maven-metadata.xml is downloaded.
+ * <p>
+ * The {@code fixture} parameter is either {@code synthetic}, or the path of a recorded maven-metadata.xml, for
+ * instance:
+ *
+ * <pre>
+ * curl -o quarkus-core.xml https://repo1.maven.org/maven2/io/quarkus/quarkus-core/maven-metadata.xml
+ * jbang benchmarks/version_resolution_bench.java -p fixture=synthetic,$PWD/quarkus-core.xml
+ * </pre>
+ *
+ * A recorded fixture is cut to the first {@code versionCount} versions. The GC profiler is enabled unless another
+ * {@code -prof} is given, to report the allocation rate next to the throughput.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class version_resolution_bench {
+
+    // The scripts live in the default package, which can only be reached reflectively from here
+    private static final MethodHandle MERGE_VERSIONS;
+
+    private static final MethodHandle KEEP_LATEST;
+
+    private static final MethodHandle IS_FINAL;
+
+    private static final MethodHandle IS_KNOWN_PRE_RELEASE_STREAM;
+
+    static {
+        try {
+            Class<?> script = Class.forName("catalog_check_updates");
+            MERGE_VERSIONS = handle(script, "mergeVersions", List.class, ArrayNode.class, ArrayNode.class);
+            KEEP_LATEST = handle(script, "keepLatest", List.class);
+            IS_FINAL = handle(script, "isFinal", String.class);
+            IS_KNOWN_PRE_RELEASE_STREAM = handle(script, "isKnownPreReleaseStream", Set.class, String.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    @Param({ "100", "1000", "10000" })
+    int versionCount;
+
+    @Param({ "synthetic" })
+    String fixture;
+
+    /**
+     * The maven-metadata.xml document, as downloaded.
+     */
+    byte[] metadata;
+
+    /**
+     * The versions in metadata order.
+     */
+    List<String> versions;
+
+    /**
+     * The versions in the order populateVersions walks them, newest first.
+     */
+    List<String> reversedVersions;
+
+    /**
+     * The versions of the descriptor before the merge.
+     */
+    ArrayNode descriptorVersions;
+
+    ArrayNode excludeVersions;
+
+    Set<String> preReleases;
+
+    public static void main(String... args) throws Exception {
+        List<String> jmhArgs = new ArrayList<>(List.of(args));
+        if (jmhArgs.isEmpty()) {
+            jmhArgs.add(version_resolution_bench.class.getSimpleName());
+        }
+        if (!jmhArgs.contains("-prof")) {
+            jmhArgs.add("-prof");
+            jmhArgs.add("gc");
+        }
+        org.openjdk.jmh.Main.main(jmhArgs.toArray(new String[0]));
+    }
+
+    @Setup
+    public void setup() throws Throwable {
+        if ("synthetic".equals(fixture)) {
+            versions = syntheticVersions(versionCount);
+        } else {
+            try (ByteArrayInputStream is = new ByteArrayInputStream(Files.readAllBytes(Path.of(fixture)))) {
+                List<String> recorded = new MetadataXpp3Reader().read(is).getVersioning().getVersions();
+                versions = new ArrayList<>(recorded.subList(0, Math.min(versionCount, recorded.size())));
+            }
+        }
+        metadata = toMetadata(versions);
+        reversedVersions = new ArrayList<>(versions);
+        Collections.reverse(reversedVersions);
+
+        JsonNodeFactory nodes = JsonNodeFactory.instance;
+        descriptorVersions = nodes.arrayNode();
+        preReleases = new HashSet<>();
+        // About 20 versions spread over the metadata, the pre-releases among them enable their stream
+        for (int i = 0; i < versions.size(); i += Math.max(1, versions.size() / 20)) {
+            String version = versions.get(i);
+            descriptorVersions.add(version);
+            if (!(boolean) IS_FINAL.invokeExact(version)) {
+                String[] segments = version.split("\\.");
+                if (segments.length > 1) {
+                    preReleases.add(segments[0] + "." + segments[1] + ".");
+                }
+            }
+        }
+        excludeVersions = nodes.arrayNode();
+        excludeVersions.add(versions.get(versions.size() / 2));
+        excludeVersions.add(".*-alpha.*");
+        excludeVersions.add("0\\..*");
+    }
+
+    @Benchmark
+    public List<?> populateVersions() throws Throwable {
+        // Everything but the download: parse the document, then merge it into a fresh copy of the descriptor
+        Metadata parsed;
+        try (ByteArrayInputStream is = new ByteArrayInputStream(metadata)) {
+            parsed = new MetadataXpp3Reader().read(is);
+        }
+        return (List<?>) MERGE_VERSIONS.invokeExact((List<?>) parsed.getVersioning().getVersions(),
+                descriptorVersions.deepCopy(), excludeVersions);
+    }
+
+    @Benchmark
+    public List<?> mergeVersions() throws Throwable {
+        return (List<?>) MERGE_VERSIONS.invokeExact((List<?>) versions, descriptorVersions.deepCopy(), excludeVersions);
+    }
+
+    @Benchmark
+    public List<?> keepLatest() throws Throwable {
+        return (List<?>) KEEP_LATEST.invokeExact((List<?>) reversedVersions);
+    }
+
+    @Benchmark
+    public void isFinal(Blackhole blackhole) throws Throwable {
+        for (String version : versions) {
+            blackhole.consume((boolean) IS_FINAL.invokeExact(version));
+        }
+    }
+
+    @Benchmark
+    public void preReleasePrefixScan(Blackhole blackhole) throws Throwable {
+        for (String version : versions) {
+            blackhole.consume((boolean) IS_KNOWN_PRE_RELEASE_STREAM.invokeExact((Set<?>) preReleases, version));
+        }
+    }
+
+    private static MethodHandle handle(Class<?> script, String name, Class<?>... parameterTypes)
+            throws ReflectiveOperationException {
+        Method method = script.getDeclaredMethod(name, parameterTypes);
+        method.setAccessible(true);
+        return MethodHandles.lookup().unreflect(method);
+    }
+
+    /**
+     * Versions shaped like a busy Quarkus artifact: each major.minor stream has a few alphas and CRs, then finals.
+     */
+    private static List<String> syntheticVersions(int count) {
+        List<String> result = new ArrayList<>(count);
+        for (int stream = 0; result.size() < count; stream++) {
+            String prefix = (1 + stream / 30) + "." + (stream % 30) + ".";
+            result.add(prefix + "0-alpha1");
+            result.add(prefix + "0.CR1");
+            result.add(prefix + "0.CR2");
+            for (int micro = 0; micro < 7; micro++) {
+                result.add(prefix + micro + ".Final");
+            }
+        }
+        return new ArrayList<>(result.subList(0, count));
+    }
+
+    private static byte[] toMetadata(List<String> versions) throws Exception {
+        Metadata metadata = new Metadata();
+        metadata.setGroupId("io.quarkus");
+        metadata.setArtifactId("quarkus-bench");
+        Versioning versioning = new Versioning();
+        versioning.setVersions(new ArrayList<>(versions));
+        versioning.setLatest(versions.get(versions.size() - 1));
+        versioning.setRelease(versions.get(versions.size() - 1));
+        metadata.setVersioning(versioning);
+        StringWriter writer = new java.io.StringWriter();
+        new MetadataXpp3Writer().write(writer, metadata);
+        return writer.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -4,43 +4,70 @@
 //DEPS org.eclipse.jgit:org.eclipse.jgit:5.13.0.202109080827-r
 //JAVA_OPTIONS "-Djava.util.logging.SimpleFormatter.format=%1$s [%4$s] %5$s%6$s%n"
 //JAVA 17
+//CDS
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.HexFormat;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.Callable;
-import java.util.function.Consumer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.dataformat.yaml.YAMLMapper;
 import io.quarkus.registry.catalog.CatalogMapperHelper;
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
 import org.apache.http.conn.ssl.NoopHostnameVerifier;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.ssl.SSLContexts;
+import org.apache.http.util.EntityUtils;
 import org.apache.maven.artifact.repository.metadata.Metadata;
 import org.apache.maven.artifact.repository.metadata.Versioning;
 import org.apache.maven.artifact.repository.metadata.io.xpp3.MetadataXpp3Reader;
 import org.apache.maven.artifact.versioning.DefaultArtifactVersion;
 import org.codehaus.plexus.util.xml.pull.XmlPullParserException;
+import org.eclipse.jgit.api.AddCommand;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.jboss.logging.Logger;
@@ -62,12 +89,45 @@ class catalog_check_updates implements Callable<Integer> {
     @Option(names = { "-n", "--no-commit" }, description = "Do not commit changes")
     boolean noCommit;
 
+    @Option(names = {
+            "--commit-mode" }, description = "Commit each modified descriptor separately (FILE) or all of them at once (BATCH)", defaultValue = "FILE")
+    CommitMode commitMode;
+
+    @Option(names = { "-p",
+            "--parallelism" }, description = "How many maven-metadata.xml files are downloaded concurrently", defaultValue = "1")
+    int parallelism;
+
+    @Option(names = {
+            "--metadata-cache" }, description = "File storing the ETag/Last-Modified of each maven-metadata.xml, so unchanged ones are not downloaded again")
+    Path metadataCache;
+
+    @Option(names = { "--connect-timeout" }, description = "HTTP connect timeout in milliseconds", defaultValue = "10000")
+    int connectTimeout;
+
+    @Option(names = { "--read-timeout" }, description = "HTTP read timeout in milliseconds", defaultValue = "60000")
+    int readTimeout;
+
+    @Option(names = {
+            "--max-connections-per-route" }, description = "Maximum number of pooled HTTP connections per host", defaultValue = "8")
+    int maxConnectionsPerRoute;
+
     private final ObjectMapper yamlMapper;
 
     private Git git;
 
+    private CloseableHttpClient httpClient;
+
+    private final Map<MetadataRequest, Future<MetadataResponse>> prefetchedMetadata = new ConcurrentHashMap<>();
+
+    // Read by the prefetch threads while the main thread stores the validators of the processed descriptors
+    private Map<String, MetadataValidators> metadataValidators;
+
+    private final Map<Path, String> pendingCommits = new LinkedHashMap<>();
+
     public static void main(String... args) {
-        int exitCode = new CommandLine(new catalog_check_updates()).execute(args);
+        int exitCode = new CommandLine(new catalog_check_updates())
+                .setCaseInsensitiveEnumValuesAllowed(true)
+                .execute(args);
         System.exit(exitCode);
     }
 
@@ -78,22 +138,67 @@ class catalog_check_updates implements Callable<Integer> {
 
     @Override
     public Integer call() throws Exception {
-        try (Git gitHandle = Git.open(workingDirectory.toFile())) {
+        PoolingHttpClientConnectionManager connectionManager = createConnectionManager();
+        try (Git gitHandle = Git.open(workingDirectory.toFile());
+                CloseableHttpClient client = createHttpClient(connectionManager)) {
             this.git = gitHandle;
-            list(workingDirectory.resolve("platforms"), this::processCatalog);
-            list(workingDirectory.resolve("extensions"), this::processExtension);
+            this.httpClient = client;
+            this.metadataValidators = loadMetadataValidators();
+            List<Path> platforms = list(workingDirectory.resolve("platforms"));
+            List<Path> extensions = list(workingDirectory.resolve("extensions"));
+            ExecutorService executor = parallelism > 1 ? Executors.newFixedThreadPool(parallelism) : null;
+            try {
+                if (executor != null) {
+                    prefetchMetadata(platforms, executor);
+                    prefetchMetadata(extensions, executor);
+                }
+                // Descriptors are always updated and committed in file order, whether metadata was prefetched or not
+                platforms.forEach(this::processCatalog);
+                extensions.forEach(this::processExtension);
+            } finally {
+                if (executor != null) {
+                    executor.shutdownNow();
+                }
+            }
+            gitCommitPending();
+            saveMetadataValidators();
+            log.infof("HTTP connection pool stats: %s", connectionManager.getTotalStats());
         }
         return 0;
     }
 
-    private void list(Path path, Consumer<Path> consumer) throws IOException {
+    private List<Path> list(Path path) throws IOException {
         try (Stream<Path> files = Files.list(path)) {
-            files
+            return files
                     .filter(file -> {
                         String fileName = file.getFileName().toString();
                         return fileName.endsWith(".yaml") || fileName.endsWith(".yml");
                     })
-                    .forEach(consumer);
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Starts downloading the maven-metadata.xml of every enabled descriptor, {@link #populateVersions} then picks up
+     * the result.
+     */
+    private void prefetchMetadata(List<Path> descriptors, ExecutorService executor) {
+        for (Path descriptor : descriptors) {
+            try {
+                JsonNode tree = yamlMapper.readTree(descriptor.toFile());
+                if (!tree.path("enabled").asBoolean(true)) {
+                    continue;
+                }
+                MetadataRequest request = new MetadataRequest(
+                        metadataURL(tree.path("maven-repository").asText(MAVEN_CENTRAL),
+                                tree.get("group-id").asText(),
+                                tree.get("artifact-id").asText()),
+                        descriptorFingerprint(tree.path("versions"), tree.path("exclude-versions")));
+                prefetchedMetadata.computeIfAbsent(request, r -> executor.submit(() -> downloadMetadata(r)));
+            } catch (IOException | RuntimeException e) {
+                // Reported again when the descriptor is processed
+                log.debugf(e, "Cannot prefetch the metadata for %s", descriptor);
+            }
         }
     }
 
@@ -163,6 +268,36 @@ class catalog_check_updates implements Callable<Integer> {
     private List<String> populateVersions(String repository, String groupId, String artifactId, ArrayNode versionsNode,
             ArrayNode excludeVersions)
             throws IOException {
+        MetadataRequest request = new MetadataRequest(metadataURL(repository, groupId, artifactId),
+                descriptorFingerprint(versionsNode, excludeVersions));
+        MetadataResponse response = fetchMetadata(request);
+        if (response.notModified()) {
+            log.debug("maven-metadata.xml not modified since the last run");
+            return new ArrayList<>();
+        }
+        List<String> versions;
+        try (InputStream is = new ByteArrayInputStream(response.body())) {
+            MetadataXpp3Reader metadataReader = new MetadataXpp3Reader();
+            Metadata metadata = metadataReader.read(is);
+            Versioning versioning = metadata.getVersioning();
+            versions = versioning.getVersions();
+        } catch (XmlPullParserException e) {
+            log.debug("Invalid metadata", e);
+            return new ArrayList<>();
+        }
+        List<String> newVersions = mergeVersions(versions, versionsNode, excludeVersions);
+        // The descriptor is only rewritten when new versions are found, otherwise it stays as it was read
+        String fingerprint = newVersions.isEmpty() ? request.fingerprint()
+                : descriptorFingerprint(versionsNode, excludeVersions);
+        storeValidators(request.url(), response, fingerprint);
+        return newVersions;
+    }
+
+    /**
+     * Replaces the content of {@code versionsNode} with the latest version of each major.minor stream listed in
+     * maven-metadata.xml, and returns the versions that were not in the descriptor yet.
+     */
+    static List<String> mergeVersions(List<String> metadataVersions, ArrayNode versionsNode, ArrayNode excludeVersions) {
         List<String> newVersions = new ArrayList<>();
         Map<String, JsonNode> map = new LinkedHashMap<>();
         Set<String> preReleases = new HashSet<>();
@@ -184,59 +319,124 @@ class catalog_check_updates implements Callable<Integer> {
                 })
                 .collect(Collectors.toList());
 
-        URI metadataURL = URI.create(MessageFormat.format("{0}{1}/{2}/maven-metadata.xml",
-                Objects.toString(repository, MAVEN_CENTRAL),
-                groupId.replace('.', '/'),
-                artifactId));
-        try (CloseableHttpClient httpClient = createHttpClient();
-                InputStream is = httpClient.execute(new HttpGet(metadataURL)).getEntity().getContent()) {
-            MetadataXpp3Reader metadataReader = new MetadataXpp3Reader();
-            Metadata metadata = metadataReader.read(is);
-            Versioning versioning = metadata.getVersioning();
-            List<String> versions = versioning.getVersions();
-            Collections.reverse(versions);
-            versions = keepLatest(versions);
-            versionsNode.removeAll();
-            for (String version : versions) {
-                if (!containsValue(excludeVersions, version)) {
-                    if (map.get(version) == null || map.get(version).isNull()) {
-                        // new version detected
-                        // for pre-releases allow update only if there was
-                        // already a manual entry in the catalog descriptor
-                        if (isFinal(version) || preReleases.stream().anyMatch(pre -> version.startsWith(pre))) {
-                            versionsNode.add(version);
-                            newVersions.add(version);
-                        }
-                    } else {
-                        versionsNode.addObject()
-                                .set(version, map.get(version));
+        List<String> versions = new ArrayList<>(metadataVersions);
+        Collections.reverse(versions);
+        versions = keepLatest(versions);
+        versionsNode.removeAll();
+        ExcludedVersions excludedVersions = new ExcludedVersions(excludeVersions);
+        for (String version : versions) {
+            if (!excludedVersions.matches(version)) {
+                if (map.get(version) == null || map.get(version).isNull()) {
+                    // new version detected
+                    // for pre-releases allow update only if there was
+                    // already a manual entry in the catalog descriptor
+                    if (isFinal(version) || isKnownPreReleaseStream(preReleases, version)) {
+                        versionsNode.add(version);
                         newVersions.add(version);
                     }
+                } else {
+                    versionsNode.addObject()
+                            .set(version, map.get(version));
+                    newVersions.add(version);
                 }
             }
-        } catch (XmlPullParserException e) {
-            log.debug("Invalid metadata", e);
         }
         newVersions.removeAll(versionsAlreadyRead);
         return newVersions;
     }
 
-    private boolean containsValue(ArrayNode arrayNode, String latestVersion) {
-        for (JsonNode node : arrayNode) {
-            if (node.isObject()) {
-                if (latestVersion.matches(node.fieldNames().next())) {
-                    return true;
-                }
-            } else {
-                if (latestVersion.matches(node.asText())) {
-                    return true;
-                }
+    static boolean isKnownPreReleaseStream(Set<String> preReleases, String version) {
+        return preReleases.stream().anyMatch(pre -> version.startsWith(pre));
+    }
+
+    private URI metadataURL(String repository, String groupId, String artifactId) {
+        return URI.create(MessageFormat.format("{0}{1}/{2}/maven-metadata.xml",
+                Objects.toString(repository, MAVEN_CENTRAL),
+                groupId.replace('.', '/'),
+                artifactId));
+    }
+
+    private MetadataResponse fetchMetadata(MetadataRequest request) throws IOException {
+        Future<MetadataResponse> prefetched = prefetchedMetadata.remove(request);
+        if (prefetched == null) {
+            return downloadMetadata(request);
+        }
+        try {
+            return prefetched.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    private MetadataResponse downloadMetadata(MetadataRequest request) throws IOException {
+        HttpGet get = new HttpGet(request.url());
+        MetadataValidators validators = metadataValidators.get(request.url().toString());
+        // Validators only apply if the descriptor is still the one the metadata was merged into
+        if (validators != null && request.fingerprint().equals(validators.descriptor())) {
+            if (validators.etag() != null) {
+                get.setHeader(HttpHeaders.IF_NONE_MATCH, validators.etag());
+            }
+            if (validators.lastModified() != null) {
+                get.setHeader(HttpHeaders.IF_MODIFIED_SINCE, validators.lastModified());
             }
         }
-        return false;
+        try (CloseableHttpResponse response = httpClient.execute(get)) {
+            if (response.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_MODIFIED) {
+                EntityUtils.consume(response.getEntity());
+                return new MetadataResponse(true, null, null, null);
+            }
+            Header etag = response.getFirstHeader(HttpHeaders.ETAG);
+            Header lastModified = response.getFirstHeader(HttpHeaders.LAST_MODIFIED);
+            return new MetadataResponse(false, EntityUtils.toByteArray(response.getEntity()),
+                    etag == null ? null : etag.getValue(),
+                    lastModified == null ? null : lastModified.getValue());
+        }
+    }
+
+    private void storeValidators(URI metadataURL, MetadataResponse response, String fingerprint) {
+        if (metadataCache == null) {
+            return;
+        }
+        if (response.etag() == null && response.lastModified() == null) {
+            metadataValidators.remove(metadataURL.toString());
+        } else {
+            metadataValidators.put(metadataURL.toString(),
+                    new MetadataValidators(response.etag(), response.lastModified(), fingerprint));
+        }
     }
 
-    private List<String> keepLatest(List<String> versions) {
+    private static String descriptorFingerprint(JsonNode versions, JsonNode excludeVersions) {
+        String descriptor = (versions.isArray() ? versions.toString() : "[]") + "\n"
+                + (excludeVersions.isArray() ? excludeVersions.toString() : "[]");
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(descriptor.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Map<String, MetadataValidators> loadMetadataValidators() throws IOException {
+        if (metadataCache == null || !Files.exists(metadataCache)) {
+            return new ConcurrentHashMap<>();
+        }
+        return new ObjectMapper().readValue(metadataCache.toFile(), new TypeReference<ConcurrentHashMap<String, MetadataValidators>>() {
+        });
+    }
+
+    private void saveMetadataValidators() throws IOException {
+        if (metadataCache != null) {
+            new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(metadataCache.toFile(), new TreeMap<>(metadataValidators));
+        }
+    }
+
+    static List<String> keepLatest(List<String> versions) {
         int major = -1, minor = -1;
         List<String> latest = new ArrayList<>();
         for (String version : versions) {
@@ -254,6 +454,10 @@ class catalog_check_updates implements Callable<Integer> {
         if (noCommit) {
             return;
         }
+        if (commitMode == CommitMode.BATCH) {
+            pendingCommits.put(file, message);
+            return;
+        }
         try {
             git.add().addFilepattern(workingDirectory.resolve(file).normalize().toString()).call();
             git.commit().setSign(false).setMessage(message).call();
@@ -262,7 +466,34 @@ class catalog_check_updates implements Callable<Integer> {
         }
     }
 
-    private static boolean isFinal(String version) {
+    /**
+     * Records all the descriptors modified during a {@link CommitMode#BATCH} run in a single commit.
+     */
+    private void gitCommitPending() throws IOException {
+        if (pendingCommits.isEmpty()) {
+            return;
+        }
+        String message;
+        if (pendingCommits.size() == 1) {
+            message = pendingCommits.values().iterator().next();
+        } else {
+            message = "Add new versions to " + pendingCommits.size() + " descriptors\n\n"
+                    + pendingCommits.values().stream().map(line -> "- " + line).collect(Collectors.joining("\n"));
+        }
+        try {
+            AddCommand add = git.add();
+            for (Path file : pendingCommits.keySet()) {
+                add.addFilepattern(workingDirectory.resolve(file).normalize().toString());
+            }
+            add.call();
+            git.commit().setSign(false).setMessage(message).call();
+        } catch (GitAPIException e) {
+            throw new IOException(e);
+        }
+        pendingCommits.clear();
+    }
+
+    static boolean isFinal(String version) {
         DefaultArtifactVersion v = new DefaultArtifactVersion(version);
         String qualifier = v.getQualifier();
         if (qualifier == null) {
@@ -273,9 +504,119 @@ class catalog_check_updates implements Callable<Integer> {
             !qualifier.startsWith("CR") && !qualifier.startsWith("RC");
     }
 
-    private CloseableHttpClient createHttpClient() {
+    private PoolingHttpClientConnectionManager createConnectionManager() {
+        Registry<ConnectionSocketFactory> socketFactories = RegistryBuilder.<ConnectionSocketFactory> create()
+                .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                .register("https", new SSLConnectionSocketFactory(SSLContexts.createDefault(), NoopHostnameVerifier.INSTANCE))
+                .build();
+        PoolingHttpClientConnectionManager manager = new PoolingHttpClientConnectionManager(socketFactories);
+        // The --parallelism prefetch workers and the main thread each hold at most one connection at a time
+        int maxPerRoute = Math.max(maxConnectionsPerRoute, parallelism + 1);
+        manager.setDefaultMaxPerRoute(maxPerRoute);
+        manager.setMaxTotal(maxPerRoute * 4);
+        return manager;
+    }
+
+    private CloseableHttpClient createHttpClient(PoolingHttpClientConnectionManager manager) {
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(connectTimeout)
+                .setSocketTimeout(readTimeout)
+                // Waiting for a pooled connection is bounded like waiting for a response
+                .setConnectionRequestTimeout(readTimeout)
+                .build();
         return HttpClients.custom()
-                .setSSLHostnameVerifier(NoopHostnameVerifier.INSTANCE)
+                .setConnectionManager(manager)
+                .setDefaultRequestConfig(requestConfig)
                 .build();
     }
+
+    /**
+     * The exclude-versions of a descriptor, compiled once. Each entry is a regular expression matching the whole
+     * version. Entries without metacharacters other than '.' (e.g. {@code 1.2.3.Final}) skip the regex engine: they
+     * are looked up in a set, since they match themselves, and only the ones containing a '.' are then compared
+     * character by character with '.' matching any character.
+     */
+    static class ExcludedVersions {
+
+        private static final String METACHARACTERS = "\\^$|?*+()[]{}";
+
+        private final Set<String> literals = new HashSet<>();
+
+        // The literals containing a '.', the only ones that can match something else than themselves
+        private final List<String> dotted = new ArrayList<>();
+
+        private final List<Pattern> patterns = new ArrayList<>();
+
+        ExcludedVersions(ArrayNode excludeVersions) {
+            for (JsonNode node : excludeVersions) {
+                String entry = node.isObject() ? node.fieldNames().next() : node.asText();
+                if (isLiteral(entry)) {
+                    literals.add(entry);
+                    if (entry.indexOf('.') >= 0) {
+                        dotted.add(entry);
+                    }
+                } else {
+                    patterns.add(Pattern.compile(entry));
+                }
+            }
+        }
+
+        boolean matches(String version) {
+            if (literals.contains(version)) {
+                return true;
+            }
+            for (String literal : dotted) {
+                if (matchesLiteral(literal, version)) {
+                    return true;
+                }
+            }
+            for (Pattern pattern : patterns) {
+                if (pattern.matcher(version).matches()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static boolean isLiteral(String entry) {
+            for (int i = 0; i < entry.length(); i++) {
+                if (METACHARACTERS.indexOf(entry.charAt(i)) >= 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean matchesLiteral(String literal, String version) {
+            if (literal.length() != version.length()) {
+                return false;
+            }
+            for (int i = 0; i < literal.length(); i++) {
+                char expected = literal.charAt(i);
+                char actual = version.charAt(i);
+                // Like the regex '.', which does not match line terminators
+                if (expected == '.' ? actual == '\n' || actual == '\r' : expected != actual) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    enum CommitMode {
+        FILE,
+        BATCH
+    }
+
+    record MetadataRequest(URI url, String fingerprint) {
+    }
+
+    record MetadataResponse(boolean notModified, byte[] body, String etag, String lastModified) {
+    }
+
+    /**
+     * The validators of a maven-metadata.xml response, and the fingerprint of the descriptor once it was merged.
+     */
+    record MetadataValidators(String etag, String lastModified, String descriptor) {
+    }
 }
@@ -3,6 +3,7 @@
 //DEPS io.quarkus:quarkus-devtools-registry-client:3.20.1
 //JAVA_OPTIONS "-Djava.util.logging.SimpleFormatter.format=%1$s [%4$s] %5$s%6$s%n"
 //JAVA 21
+//CDS
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -12,19 +13,29 @@ import com.fasterxml.jackson.dataformat.yaml.YAMLMapper;
 import io.quarkus.maven.dependency.ArtifactCoords;
 import io.quarkus.registry.catalog.CatalogMapperHelper;
 import io.quarkus.registry.catalog.ExtensionCatalog;
+import org.apache.http.Header;
 import org.apache.http.NameValuePair;
 import org.apache.http.StatusLine;
 import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPatch;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
 import org.apache.http.conn.ssl.NoopHostnameVerifier;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.ssl.SSLContexts;
+import org.apache.http.util.EntityUtils;
 import org.apache.maven.settings.Server;
 import org.apache.maven.settings.Settings;
 import org.apache.maven.settings.building.DefaultSettingsBuilderFactory;
@@ -36,26 +47,54 @@ import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
 
 import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URI;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.MessageFormat;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
 
 @Command(name = "catalog_publish", mixinStandardHelpOptions = true, version = "catalog_publish 0.1",
         description = "catalog_publish made with jbang")
@@ -63,6 +102,8 @@ class catalog_publish implements Callable<Integer> {
 
     private static final String MAVEN_CENTRAL = "https://repo1.maven.org/maven2/";
 
+    private static final String EXTENSION_METADATA = "META-INF/quarkus-extension.yaml";
+
     private static final Logger log = Logger.getLogger(catalog_publish.class);
 
     @Option(names = {"-w", "--working-directory"}, description = "The working directory", required = true)
@@ -79,10 +120,42 @@ class catalog_publish implements Callable<Integer> {
     @Option(names = {"-a", "--all"}, description = "Publish all versions? If false, just the latest is published")
     boolean all;
 
+    @Option(names = {"-p",
+            "--parallelism"}, description = "How many descriptors are fetched and published concurrently", defaultValue = "1")
+    int parallelism;
+
+    @Option(names = {"--connect-timeout"}, description = "HTTP connect timeout in milliseconds", defaultValue = "10000")
+    int connectTimeout;
+
+    @Option(names = {"--read-timeout"}, description = "HTTP read timeout in milliseconds", defaultValue = "60000")
+    int readTimeout;
+
+    @Option(names = {"--max-connections-per-route"}, description = "Maximum number of pooled HTTP connections per host", defaultValue = "8")
+    int maxConnectionsPerRoute;
+
+    @Option(names = {"-i",
+            "--incremental"}, description = "Skip the versions recorded as published in the state file by a previous run")
+    boolean incremental;
+
+    @Option(names = {"--state-file"}, description = "The file recording the published versions, relative to the working directory", defaultValue = ".catalog-publish-state")
+    Path stateFile;
+
+    @Option(names = {"--cache-dir"}, description = "Directory where downloaded platform descriptors and extension metadata are cached")
+    Path cacheDir;
+
+    @Option(names = {"--cache-max-size"}, description = "Maximum size of the download cache in megabytes", defaultValue = "512")
+    long cacheMaxSize;
+
     private static Settings mavenSettings;
 
     private final ObjectMapper yamlMapper;
 
+    private CloseableHttpClient httpClient;
+
+    private PublishState publishState;
+
+    private DownloadCache downloadCache;
+
     public static void main(String... args) {
         int exitCode = new CommandLine(new catalog_publish()).execute(args);
         System.exit(exitCode);
@@ -95,8 +168,20 @@ class catalog_publish implements Callable<Integer> {
 
     @Override
     public Integer call() throws Exception {
-        boolean error1 = list(workingDirectory.resolve("platforms"), this::processCatalog);
-        boolean error2 = list(workingDirectory.resolve("extensions"), this::processExtension);
+        if (incremental) {
+            publishState = PublishState.load(workingDirectory.resolve(stateFile));
+        }
+        if (cacheDir != null) {
+            downloadCache = new DownloadCache(cacheDir, cacheMaxSize * 1024 * 1024);
+        }
+        boolean error1, error2;
+        PoolingHttpClientConnectionManager connectionManager = createConnectionManager();
+        try (CloseableHttpClient client = createHttpClient(connectionManager)) {
+            this.httpClient = client;
+            error1 = list(workingDirectory.resolve("platforms"), this::processCatalog);
+            error2 = list(workingDirectory.resolve("extensions"), this::processExtension);
+            log.infof("HTTP connection pool stats: %s", connectionManager.getTotalStats());
+        }
         if (error1 || error2) {
             return 1;
         }
@@ -104,13 +189,50 @@ class catalog_publish implements Callable<Integer> {
     }
 
     private boolean list(Path path, Function<Path, Boolean> consumer) throws IOException {
-        boolean error;
+        List<Path> descriptors;
         try (Stream<Path> files = Files.list(path)) {
-            error = files.filter(file -> {
+            descriptors = files.filter(file -> {
                         String fileName = file.getFileName().toString();
                         return fileName.endsWith(".yaml") || fileName.endsWith(".yml");
                     })
-                    .anyMatch(consumer::apply);
+                    .collect(Collectors.toList());
+        }
+        if (parallelism <= 1) {
+            return descriptors.stream().anyMatch(consumer::apply);
+        }
+        return listConcurrently(descriptors, consumer);
+    }
+
+    /**
+     * Processes each descriptor on its own virtual thread, with at most {@link #parallelism} running at once.
+     * A platform and its members are still published in order, since they are handled by the same task.
+     */
+    private boolean listConcurrently(List<Path> descriptors, Function<Path, Boolean> consumer) throws IOException {
+        Semaphore permits = new Semaphore(parallelism);
+        Map<Path, Future<Boolean>> results = new LinkedHashMap<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Path descriptor : descriptors) {
+                results.put(descriptor, executor.submit(() -> {
+                    permits.acquire();
+                    try {
+                        return consumer.apply(descriptor);
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+        }
+        boolean error = false;
+        for (Map.Entry<Path, Future<Boolean>> result : results.entrySet()) {
+            try {
+                error |= result.getValue().get();
+            } catch (ExecutionException e) {
+                log.errorf(e.getCause(), "Error while processing %s", result.getKey());
+                error = true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while processing " + result.getKey(), e);
+            }
         }
         return error;
     }
@@ -151,13 +273,7 @@ class catalog_publish implements Callable<Integer> {
                 if (classifierAsVersion) {
                     classifier = version;
                 }
-                // Get Extension YAML
-                byte[] jsonPlatform = readCatalog(repositories, groupId, artifactId, version, classifier, serverId);
-                // Publish
-                log.infof("Publishing %s:%s:%s", groupId, artifactId, version);
-                publishCatalog(platformKey, jsonPlatform, false, "C", ArtifactCoords.jar(groupId, artifactId, version));
-                // Publish platform members
-                publishCatalogMembers(jsonPlatform, repositories, serverId);
+                publishPlatform(platformKey, repositories, groupId, artifactId, version, classifier, serverId, false);
                 if (!all) {
                     // Just publish the first one
                     break;
@@ -168,13 +284,7 @@ class catalog_publish implements Callable<Integer> {
                 if (classifierAsVersion) {
                     classifier = version;
                 }
-                // Get Extension YAML
-                byte[] jsonPlatform = readCatalog(repositories, groupId, artifactId, version, classifier, serverId);
-                // Publish
-                log.infof("Publishing %s:%s:%s", groupId, artifactId, version);
-                publishCatalog(platformKey, jsonPlatform, true, "C", ArtifactCoords.jar(groupId, artifactId, version));
-                // Publish platform members
-                publishCatalogMembers(jsonPlatform, repositories, serverId);
+                publishPlatform(platformKey, repositories, groupId, artifactId, version, classifier, serverId, true);
                 if (!all) {
                     // Just publish the first one
                     break;
@@ -190,9 +300,21 @@ class catalog_publish implements Callable<Integer> {
             streams.addAll(ltsStreams);
 
             for (String stream : streams) {
-                // Publish
-                log.infof("Patching stream %s for platform %s", stream, platformKey);
-                patchPlatformStream(platformKey, stream, pinnedStreams.contains(stream), unlistedStreams.contains(stream), ltsStreams.contains(stream));
+                boolean pinned = pinnedStreams.contains(stream);
+                boolean unlisted = unlistedStreams.contains(stream);
+                boolean lts = ltsStreams.contains(stream);
+                String stateKey = stateKey("S", platformKey, stream);
+                String flags = "pinned=" + pinned + ",unlisted=" + unlisted + ",lts=" + lts;
+                if (publishState != null && flags.equals(publishState.get(stateKey))) {
+                    log.infof("Stream %s for platform %s is unchanged. Skipping", stream, platformKey);
+                } else {
+                    // Publish
+                    log.infof("Patching stream %s for platform %s", stream, platformKey);
+                    patchPlatformStream(platformKey, stream, pinned, unlisted, lts);
+                    if (publishState != null) {
+                        publishState.record(stateKey, flags);
+                    }
+                }
                 if (!all) {
                     // Just publish the first one
                     break;
@@ -207,6 +329,25 @@ class catalog_publish implements Callable<Integer> {
         return false;
     }
 
+    private void publishPlatform(String platformKey, List<String> repositories, String groupId, String artifactId, String version,
+                                 String classifier, String serverId, boolean pinned) throws IOException {
+        ArtifactCoords coords = ArtifactCoords.jar(groupId, artifactId, version);
+        String stateKey = stateKey("C", platformKey, Boolean.toString(pinned), coords.toString());
+        if (isPublished(stateKey)) {
+            log.infof("%s:%s:%s was already published. Skipping", groupId, artifactId, version);
+            return;
+        }
+        // Get Extension YAML
+        byte[] jsonPlatform = readCatalog(repositories, groupId, artifactId, version, classifier, serverId);
+        // Publish
+        log.infof("Publishing %s:%s:%s", groupId, artifactId, version);
+        publishCatalog(platformKey, jsonPlatform, pinned, "C", coords);
+        // Publish platform members
+        publishCatalogMembers(jsonPlatform, repositories, serverId);
+        // Only recorded once all members are in, so a partial run is resumed on the next one
+        markPublished(stateKey);
+    }
+
     private void publishCatalogMembers(byte[] parentPlatform, List<String> repositories, String serverId) throws IOException {
         ExtensionCatalog catalog = CatalogMapperHelper.deserialize(new ByteArrayInputStream(parentPlatform),
                 io.quarkus.registry.catalog.ExtensionCatalogImpl.Builder.class);
@@ -220,11 +361,17 @@ class catalog_publish implements Callable<Integer> {
                 String artifactId = memberCoords.getArtifactId();
                 String version = memberCoords.getVersion();
                 String classifier = version;
+                String platformKey = memberCoords.getGroupId() + ":" + memberCoords.getArtifactId();
+                String stateKey = stateKey("M", platformKey, memberCoords.toString());
+                if (isPublished(stateKey)) {
+                    log.infof("%s was already published. Skipping", member);
+                    continue;
+                }
                 byte[] jsonPlatform = readCatalog(repositories, groupId, artifactId, version, classifier, serverId);
                 // Publish
                 log.infof("Publishing %s:%s:%s", memberCoords.getGroupId(), memberCoords.getArtifactId(), memberCoords.getVersion());
-                String platformKey = memberCoords.getGroupId() + ":" + memberCoords.getArtifactId();
                 publishCatalog(platformKey, jsonPlatform, false, "M", memberCoords);
+                markPublished(stateKey);
             }
         }
     }
@@ -260,13 +407,26 @@ class catalog_publish implements Callable<Integer> {
                     version = node.asText();
                     compatibleWithQuarkusVersions = Collections.emptyList();
                 }
-                // Get Extension YAML
-                byte[] jsonExtension = readExtension(repository, groupId, artifactId, version);
-                // Publish
-                log.infof("Publishing %s:%s:%s", groupId, artifactId, version);
-                publishExtension(jsonExtension);
-                if (!compatibleWithQuarkusVersions.isEmpty()) {
-                    publishCompatibility(groupId, artifactId, version, compatibleWithQuarkusVersions);
+                String gav = groupId + ":" + artifactId + ":" + version;
+                String stateKey = stateKey("E", gav);
+                if (isPublished(stateKey)) {
+                    log.infof("%s was already published. Skipping", gav);
+                } else {
+                    // Get Extension YAML
+                    byte[] jsonExtension = readExtension(repository, groupId, artifactId, version);
+                    // Publish
+                    log.infof("Publishing %s:%s:%s", groupId, artifactId, version);
+                    publishExtension(jsonExtension);
+                    markPublished(stateKey);
+                }
+                List<String> pendingCompatibility = compatibleWithQuarkusVersions.stream()
+                        .filter(quarkusCore -> !isPublished(stateKey("Q", gav, quarkusCore)))
+                        .collect(Collectors.toList());
+                if (!pendingCompatibility.isEmpty()) {
+                    publishCompatibility(groupId, artifactId, version, pendingCompatibility);
+                    for (String quarkusCore : pendingCompatibility) {
+                        markPublished(stateKey("Q", gav, quarkusCore));
+                    }
                 }
                 if (!all) {
                     // Just publish the first one
@@ -309,14 +469,19 @@ class catalog_publish implements Callable<Integer> {
                 }
                 return Files.readAllBytes(path);
             }
-            try (CloseableHttpClient httpClient = createHttpClient();
-                 CloseableHttpResponse response = request(httpClient, platformJson, serverId)) {
+            byte[] cached = readFromCache(platformJson.toString(), version);
+            if (cached != null) {
+                return cached;
+            }
+            try (CloseableHttpResponse response = request(platformJson, serverId)) {
                 try (InputStream is = response.getEntity().getContent()) {
                     if (response.getStatusLine().getStatusCode() != 200) {
                         log.info("Can't get the extension catalog from " + platformJson + ", server responded: " + new String(is.readAllBytes()));
                         continue; // try the next possible repo
                     } else {
-                        return is.readAllBytes();
+                        byte[] content = is.readAllBytes();
+                        writeToCache(platformJson.toString(), version, content);
+                        return content;
                     }
                 }
             }
@@ -324,7 +489,7 @@ class catalog_publish implements Callable<Integer> {
         throw new RuntimeException("Can't read the extension catalog, URIs tried: " + triedUris);
     }
 
-    private CloseableHttpResponse request(CloseableHttpClient httpClient, URI platformJson, String serverId) throws IOException {
+    private CloseableHttpResponse request(URI platformJson, String serverId) throws IOException {
         HttpGet request = new HttpGet(platformJson);
 
         UsernamePasswordCredentials credentials = findAuthenticationInfo(serverId, platformJson);
@@ -346,135 +511,228 @@ class catalog_publish implements Callable<Integer> {
                 groupId.replace('.', '/'),
                 artifactId,
                 version)).toURL();
-        try (InputStream is = extensionJarURL.openStream()) {
-            return is.readAllBytes();
+        byte[] cached = readFromCache(extensionJarURL.toString(), version);
+        if (cached != null) {
+            return cached;
+        }
+        URI extensionJar = URI.create(MessageFormat.format("{0}{1}/{2}/{3}/{2}-{3}.jar",
+                Objects.toString(repository, MAVEN_CENTRAL),
+                groupId.replace('.', '/'),
+                artifactId,
+                version));
+        byte[] content;
+        try {
+            content = JarEntryReader.readEntry(JarEntryReader.open(httpClient, extensionJar), EXTENSION_METADATA);
+        } catch (ZipException e) {
+            log.debugf(e, "Can't read %s from the central directory of %s, downloading the whole JAR", EXTENSION_METADATA, extensionJar);
+            content = downloadEntry(extensionJar, EXTENSION_METADATA);
         }
+        writeToCache(extensionJarURL.toString(), version, content);
+        return content;
     }
 
-    private void publishExtension(byte[] extension) throws IOException {
-        try (final CloseableHttpClient httpClient = createHttpClient()) {
-            HttpPost post = new HttpPost(registryURL.resolve("/admin/v1/extension"));
-            post.setHeader("Content-Type", "application/yaml");
-            if (token != null) {
-                post.setHeader("Token", token);
+    /**
+     * Downloads the whole archive through the pooled client, so with its timeouts, and reads the entry from the
+     * local file headers: unlike {@link JarEntryReader}, it does not need a readable central directory.
+     */
+    private byte[] downloadEntry(URI archive, String entryName) throws IOException {
+        try (CloseableHttpResponse response = httpClient.execute(new HttpGet(archive))) {
+            StatusLine statusLine = response.getStatusLine();
+            if (statusLine.getStatusCode() == HttpURLConnection.HTTP_NOT_FOUND) {
+                throw new FileNotFoundException(archive.toString());
+            } else if (statusLine.getStatusCode() != HttpURLConnection.HTTP_OK) {
+                throw new IOException(archive + " -> " + statusLine);
             }
-            post.setEntity(new ByteArrayEntity(extension));
-            try (CloseableHttpResponse response = httpClient.execute(post)) {
-                StatusLine statusLine = response.getStatusLine();
-                int statusCode = statusLine.getStatusCode();
-                if (statusCode == HttpURLConnection.HTTP_CONFLICT) {
-                    log.info("Conflict, version already exists. Ignoring");
-                    return;
-                }
-                if (statusCode >= 300) {
-                    throw new IOException(statusLine.getStatusCode() + " -> " + statusLine.getReasonPhrase());
-                } else {
-                    log.info("Extension published");
+            try (ZipInputStream zip = new ZipInputStream(response.getEntity().getContent())) {
+                for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+                    if (entry.getName().equals(entryName)) {
+                        return zip.readAllBytes();
+                    }
                 }
             }
         }
+        throw new FileNotFoundException(entryName + " not found in " + archive);
+    }
+
+    private byte[] readFromCache(String url, String version) throws IOException {
+        if (!isCacheable(url, version)) {
+            return null;
+        }
+        byte[] content = downloadCache.get(url);
+        if (content != null) {
+            log.debugf("Using cached %s", url);
+        }
+        return content;
+    }
+
+    private void writeToCache(String url, String version, byte[] content) throws IOException {
+        if (isCacheable(url, version)) {
+            downloadCache.put(url, content);
+        }
+    }
+
+    private boolean isCacheable(String url, String version) {
+        // Snapshots can be redeployed, only releases are immutable. Local repositories are not worth caching
+        return downloadCache != null && !version.endsWith("-SNAPSHOT") && !url.startsWith("jar:file:");
+    }
+
+    private void publishExtension(byte[] extension) throws IOException {
+        HttpPost post = new HttpPost(registryURL.resolve("/admin/v1/extension"));
+        post.setHeader("Content-Type", "application/yaml");
+        if (token != null) {
+            post.setHeader("Token", token);
+        }
+        post.setEntity(new ByteArrayEntity(extension));
+        try (CloseableHttpResponse response = httpClient.execute(post)) {
+            StatusLine statusLine = response.getStatusLine();
+            int statusCode = statusLine.getStatusCode();
+            // Drain the body so the connection is returned to the pool
+            EntityUtils.consume(response.getEntity());
+            if (statusCode == HttpURLConnection.HTTP_CONFLICT) {
+                log.info("Conflict, version already exists. Ignoring");
+                return;
+            }
+            if (statusCode >= 300) {
+                throw new IOException(statusLine.getStatusCode() + " -> " + statusLine.getReasonPhrase());
+            } else {
+                log.info("Extension published");
+            }
+        }
     }
 
     private void publishCatalog(String platformKey, byte[] jsonPlatform, boolean pinned, String platformType, ArtifactCoords artifactCoords)
             throws IOException {
-        try (final CloseableHttpClient httpClient = createHttpClient()) {
-            HttpPost post = new HttpPost(registryURL.resolve("/admin/v1/extension/catalog"));
-            post.setHeader("X-Platform", platformKey);
-            post.setHeader("X-Platform-Pinned", Boolean.toString(pinned));
-            post.setHeader("X-Platform-Type", platformType);
-            post.setHeader("X-Group-Id", artifactCoords.getGroupId());
-            post.setHeader("X-Artifact-Id", artifactCoords.getArtifactId());
-            post.setHeader("X-Version", artifactCoords.getVersion());
-            post.setHeader("Content-Type", "application/json");
-            if (token != null) {
-                post.setHeader("Token", token);
-            }
-            post.setEntity(new ByteArrayEntity(jsonPlatform));
-            try (CloseableHttpResponse response = httpClient.execute(post)) {
-                StatusLine statusLine = response.getStatusLine();
-                int statusCode = statusLine.getStatusCode();
-                if (statusCode == HttpURLConnection.HTTP_CONFLICT) {
-                    log.info("Conflict, version already exists. Ignoring");
-                    return;
-                }
-                if (statusCode >= 300) {
-                    throw new IOException(statusLine.getStatusCode() + " -> " + statusLine.getReasonPhrase());
-                } else {
-                    log.info("Platform published");
-                }
+        HttpPost post = new HttpPost(registryURL.resolve("/admin/v1/extension/catalog"));
+        post.setHeader("X-Platform", platformKey);
+        post.setHeader("X-Platform-Pinned", Boolean.toString(pinned));
+        post.setHeader("X-Platform-Type", platformType);
+        post.setHeader("X-Group-Id", artifactCoords.getGroupId());
+        post.setHeader("X-Artifact-Id", artifactCoords.getArtifactId());
+        post.setHeader("X-Version", artifactCoords.getVersion());
+        post.setHeader("Content-Type", "application/json");
+        if (token != null) {
+            post.setHeader("Token", token);
+        }
+        post.setEntity(new ByteArrayEntity(jsonPlatform));
+        try (CloseableHttpResponse response = httpClient.execute(post)) {
+            StatusLine statusLine = response.getStatusLine();
+            int statusCode = statusLine.getStatusCode();
+            EntityUtils.consume(response.getEntity());
+            if (statusCode == HttpURLConnection.HTTP_CONFLICT) {
+                log.info("Conflict, version already exists. Ignoring");
+                return;
+            }
+            if (statusCode >= 300) {
+                throw new IOException(statusLine.getStatusCode() + " -> " + statusLine.getReasonPhrase());
+            } else {
+                log.info("Platform published");
             }
         }
     }
 
     private void publishCompatibility(String groupId, String artifactId, String version,
                                       List<String> compatibleWithQuarkusVersions) throws IOException {
-        try (final CloseableHttpClient httpClient = createHttpClient()) {
-            HttpPost post = new HttpPost(registryURL.resolve("/admin/v1/extension/compat"));
-            post.setHeader("Content-Type", "application/x-www-form-urlencoded");
-            if (token != null) {
-                post.setHeader("Token", token);
-            }
-            for (String quarkusCore : compatibleWithQuarkusVersions) {
-                List<NameValuePair> params = List.of(
-                        new BasicNameValuePair("groupId", groupId),
-                        new BasicNameValuePair("artifactId", artifactId),
-                        new BasicNameValuePair("version", version),
-                        new BasicNameValuePair("quarkusCore", quarkusCore),
-                        new BasicNameValuePair("compatible", "true")
-                );
-                post.setEntity(new UrlEncodedFormEntity(params));
-                try (CloseableHttpResponse response = httpClient.execute(post)) {
-                    StatusLine statusLine = response.getStatusLine();
-                    int statusCode = statusLine.getStatusCode();
-                    if (statusCode >= 300) {
-                        throw new IOException(statusLine.getStatusCode() + " -> " + statusLine.getReasonPhrase());
-                    } else {
-                        log.infof("Extension %s:%s:%s is now marked as compatible with Quarkus %s", groupId, artifactId,
-                                version, quarkusCore);
-                    }
-                }
-            }
+        HttpPost post = new HttpPost(registryURL.resolve("/admin/v1/extension/compat"));
+        post.setHeader("Content-Type", "application/x-www-form-urlencoded");
+        if (token != null) {
+            post.setHeader("Token", token);
         }
-    }
-
-    private void patchPlatformStream(String platformKey, String stream, boolean pinned, boolean unlisted, boolean lts) throws IOException {
-        try (final CloseableHttpClient httpClient = createHttpClient()) {
-            HttpPatch post = new HttpPatch(registryURL.resolve("/admin/v1/stream/" + platformKey + "/" + stream));
-            post.setHeader("Content-Type", "application/x-www-form-urlencoded");
-            if (token != null) {
-                post.setHeader("Token", token);
-            }
+        for (String quarkusCore : compatibleWithQuarkusVersions) {
             List<NameValuePair> params = List.of(
-                    new BasicNameValuePair("pinned", String.valueOf(pinned)),
-                    new BasicNameValuePair("unlisted", String.valueOf(unlisted)),
-                    new BasicNameValuePair("lts", String.valueOf(lts))
+                    new BasicNameValuePair("groupId", groupId),
+                    new BasicNameValuePair("artifactId", artifactId),
+                    new BasicNameValuePair("version", version),
+                    new BasicNameValuePair("quarkusCore", quarkusCore),
+                    new BasicNameValuePair("compatible", "true")
             );
             post.setEntity(new UrlEncodedFormEntity(params));
             try (CloseableHttpResponse response = httpClient.execute(post)) {
                 StatusLine statusLine = response.getStatusLine();
                 int statusCode = statusLine.getStatusCode();
+                EntityUtils.consume(response.getEntity());
                 if (statusCode >= 300) {
                     throw new IOException(statusLine.getStatusCode() + " -> " + statusLine.getReasonPhrase());
                 } else {
-                    log.infof("Stream %s (platform %s) is now patched", stream, platformKey);
+                    log.infof("Extension %s:%s:%s is now marked as compatible with Quarkus %s", groupId, artifactId,
+                            version, quarkusCore);
                 }
             }
         }
     }
 
+    private void patchPlatformStream(String platformKey, String stream, boolean pinned, boolean unlisted, boolean lts) throws IOException {
+        HttpPatch post = new HttpPatch(registryURL.resolve("/admin/v1/stream/" + platformKey + "/" + stream));
+        post.setHeader("Content-Type", "application/x-www-form-urlencoded");
+        if (token != null) {
+            post.setHeader("Token", token);
+        }
+        List<NameValuePair> params = List.of(
+                new BasicNameValuePair("pinned", String.valueOf(pinned)),
+                new BasicNameValuePair("unlisted", String.valueOf(unlisted)),
+                new BasicNameValuePair("lts", String.valueOf(lts))
+        );
+        post.setEntity(new UrlEncodedFormEntity(params));
+        try (CloseableHttpResponse response = httpClient.execute(post)) {
+            StatusLine statusLine = response.getStatusLine();
+            int statusCode = statusLine.getStatusCode();
+            EntityUtils.consume(response.getEntity());
+            if (statusCode >= 300) {
+                throw new IOException(statusLine.getStatusCode() + " -> " + statusLine.getReasonPhrase());
+            } else {
+                log.infof("Stream %s (platform %s) is now patched", stream, platformKey);
+            }
+        }
+    }
+
+    private String stateKey(String... parts) {
+        // Include the registry, so the same state file can't mark versions as published elsewhere
+        return registryURL + "|" + String.join("|", parts);
+    }
+
+    private boolean isPublished(String stateKey) {
+        return publishState != null && publishState.contains(stateKey);
+    }
+
+    private void markPublished(String stateKey) throws IOException {
+        if (publishState != null) {
+            publishState.record(stateKey, "");
+        }
+    }
+
     private Set<String> toSet(ArrayNode node) {
         return StreamSupport.stream(node.spliterator(), false)
                 .map(JsonNode::asText)
                 .collect(Collectors.toSet());
     }
 
-    private CloseableHttpClient createHttpClient() {
+    private PoolingHttpClientConnectionManager createConnectionManager() {
+        Registry<ConnectionSocketFactory> socketFactories = RegistryBuilder.<ConnectionSocketFactory>create()
+                .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                .register("https", new SSLConnectionSocketFactory(SSLContexts.createDefault(), NoopHostnameVerifier.INSTANCE))
+                .build();
+        PoolingHttpClientConnectionManager manager = new PoolingHttpClientConnectionManager(socketFactories);
+        // Each of the --parallelism workers holds at most one connection at a time
+        int maxPerRoute = Math.max(maxConnectionsPerRoute, parallelism);
+        manager.setDefaultMaxPerRoute(maxPerRoute);
+        // The registry plus a handful of Maven repositories are the only routes used
+        manager.setMaxTotal(maxPerRoute * 4);
+        return manager;
+    }
+
+    private CloseableHttpClient createHttpClient(PoolingHttpClientConnectionManager manager) {
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(connectTimeout)
+                .setSocketTimeout(readTimeout)
+                // Waiting for a pooled connection is bounded like waiting for a response
+                .setConnectionRequestTimeout(readTimeout)
+                .build();
         return HttpClients.custom()
-                .setSSLHostnameVerifier(NoopHostnameVerifier.INSTANCE)
+                .setConnectionManager(manager)
+                .setDefaultRequestConfig(requestConfig)
                 .build();
     }
 
-    private static Settings getMavenSettings() {
+    private static synchronized Settings getMavenSettings() {
         if (mavenSettings == null) {
             DefaultSettingsBuildingRequest buildingRequest = new DefaultSettingsBuildingRequest();
             DefaultSettingsBuilderFactory factory = new DefaultSettingsBuilderFactory();
@@ -514,5 +772,404 @@ class catalog_publish implements Callable<Integer> {
         }
         return credentials;
     }
-}
 
+    /**
+     * Records what the registry already accepted, one {@code <key>} line per published item. Streams are recorded as
+     * {@code <key> TAB <flags>}, since their flags can change after they were patched. The file is append-only, the
+     * last line for a given key wins.
+     */
+    static class PublishState {
+
+        private final Path file;
+
+        private final Map<String, String> published = new ConcurrentHashMap<>();
+
+        private PublishState(Path file) {
+            this.file = file;
+        }
+
+        static PublishState load(Path file) throws IOException {
+            PublishState state = new PublishState(file);
+            if (Files.exists(file)) {
+                try (Stream<String> lines = Files.lines(file)) {
+                    lines.filter(line -> !line.isEmpty()).forEach(line -> {
+                        int separator = line.indexOf('\t');
+                        if (separator < 0) {
+                            state.published.put(line, "");
+                        } else {
+                            state.published.put(line.substring(0, separator), line.substring(separator + 1));
+                        }
+                    });
+                }
+                log.infof("Loaded %d published entries from %s", state.published.size(), file);
+            }
+            return state;
+        }
+
+        boolean contains(String key) {
+            return published.containsKey(key);
+        }
+
+        /**
+         * @return the value recorded for the key, or {@code null} if there is none
+         */
+        String get(String key) {
+            return published.get(key);
+        }
+
+        synchronized void record(String key, String value) throws IOException {
+            if (value.equals(published.put(key, value))) {
+                return;
+            }
+            Files.writeString(file, (value.isEmpty() ? key : key + "\t" + value) + "\n", StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+    }
+
+    /**
+     * Stores released artifacts under the SHA-256 of their URL and evicts the least recently used entries
+     * once the cache grows beyond its maximum size. The last modified time of an entry is its last access time.
+     * The directory is only scanned on startup and when an eviction is needed, the size is tracked in between.
+     */
+    static class DownloadCache {
+
+        private final Path directory;
+
+        private final long maxSize;
+
+        private long size;
+
+        DownloadCache(Path directory, long maxSize) throws IOException {
+            this.directory = Files.createDirectories(directory);
+            this.maxSize = maxSize;
+            for (Path entry : entries()) {
+                size += Files.size(entry);
+            }
+        }
+
+        byte[] get(String url) throws IOException {
+            Path entry = directory.resolve(sha256(url.getBytes(StandardCharsets.UTF_8)));
+            try {
+                byte[] content = Files.readAllBytes(entry);
+                Files.setLastModifiedTime(entry, FileTime.from(Instant.now()));
+                return content;
+            } catch (NoSuchFileException e) {
+                return null;
+            }
+        }
+
+        void put(String url, byte[] content) throws IOException {
+            Path entry = directory.resolve(sha256(url.getBytes(StandardCharsets.UTF_8)));
+            Path tmp = Files.createTempFile(directory, "download", ".tmp");
+            Files.write(tmp, content);
+            synchronized (this) {
+                long replaced;
+                try {
+                    replaced = Files.size(entry);
+                } catch (NoSuchFileException e) {
+                    replaced = 0;
+                }
+                Files.move(tmp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                size += content.length - replaced;
+                if (size > maxSize) {
+                    evict();
+                }
+            }
+        }
+
+        private List<Path> entries() throws IOException {
+            try (Stream<Path> files = Files.list(directory)) {
+                return files.filter(file -> !file.getFileName().toString().endsWith(".tmp"))
+                        .collect(Collectors.toList());
+            }
+        }
+
+        /**
+         * Rescans the directory, which also corrects the tracked size if another process changed the cache, and evicts
+         * down to 90% of the maximum size, so a full cache is not rescanned on every put.
+         */
+        private void evict() throws IOException {
+            List<Path> entries = entries();
+            Map<Path, BasicFileAttributes> attributes = new HashMap<>();
+            size = 0;
+            for (Path entry : entries) {
+                BasicFileAttributes attrs = Files.readAttributes(entry, BasicFileAttributes.class);
+                attributes.put(entry, attrs);
+                size += attrs.size();
+            }
+            if (size <= maxSize) {
+                return;
+            }
+            long target = maxSize / 10 * 9;
+            entries.sort(Comparator.comparing(entry -> attributes.get(entry).lastModifiedTime()));
+            for (Path entry : entries) {
+                if (size <= target) {
+                    break;
+                }
+                if (Files.deleteIfExists(entry)) {
+                    size -= attributes.get(entry).size();
+                    log.debugf("Evicted %s from the download cache", entry.getFileName());
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a single entry of a JAR through its central directory, so only the end of the archive and the entry itself
+     * are transferred. Remote archives are read with HTTP range requests, local ones through a memory-mapped channel.
+     */
+    static class JarEntryReader {
+
+        private static final int END_SIGNATURE = 0x06054b50;
+
+        private static final int CENTRAL_SIGNATURE = 0x02014b50;
+
+        private static final int LOCAL_SIGNATURE = 0x04034b50;
+
+        private static final int END_HEADER_SIZE = 22;
+
+        private static final int CENTRAL_HEADER_SIZE = 46;
+
+        private static final int LOCAL_HEADER_SIZE = 30;
+
+        // The end of central directory record is followed by a comment of at most 64k
+        private static final int MAX_END_SIZE = END_HEADER_SIZE + 0xFFFF;
+
+        interface Source {
+
+            /**
+             * @return the last {@code length} bytes of the archive, or the whole archive if it is smaller
+             */
+            ByteBuffer tail(int length) throws IOException;
+
+            /**
+             * @return the archive size, only known once {@link #tail(int)} was called
+             */
+            long size();
+
+            ByteBuffer read(long offset, int length) throws IOException;
+        }
+
+        static Source open(CloseableHttpClient httpClient, URI jar) throws IOException {
+            if ("file".equals(jar.getScheme())) {
+                try (FileChannel channel = FileChannel.open(Path.of(jar), StandardOpenOption.READ)) {
+                    return new BufferSource(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+                }
+            }
+            return new HttpSource(httpClient, jar);
+        }
+
+        static byte[] readEntry(Source source, String entryName) throws IOException {
+            ByteBuffer tail = source.tail(MAX_END_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            long tailOffset = source.size() - tail.limit();
+            int end = tail.limit() - END_HEADER_SIZE;
+            while (end >= 0 && tail.getInt(end) != END_SIGNATURE) {
+                end--;
+            }
+            if (end < 0) {
+                throw new ZipException("End of central directory not found");
+            }
+            long centralSize = Integer.toUnsignedLong(tail.getInt(end + 12));
+            long centralOffset = Integer.toUnsignedLong(tail.getInt(end + 16));
+            if (centralSize == 0xFFFFFFFFL || centralOffset == 0xFFFFFFFFL) {
+                throw new ZipException("ZIP64 archives are not supported");
+            }
+            // The central directory ends where the end of central directory record starts
+            if (centralOffset + centralSize > tailOffset + end) {
+                throw new ZipException("Central directory out of range");
+            }
+            ByteBuffer central;
+            if (centralOffset >= tailOffset) {
+                // Small archives: the central directory was already transferred with the tail
+                central = tail.slice((int) (centralOffset - tailOffset), (int) centralSize);
+            } else {
+                central = source.read(centralOffset, (int) centralSize);
+            }
+            central.order(ByteOrder.LITTLE_ENDIAN);
+            ByteBuffer name = ByteBuffer.wrap(entryName.getBytes(StandardCharsets.UTF_8));
+            int pos = 0;
+            while (pos + CENTRAL_HEADER_SIZE <= central.limit()) {
+                if (central.getInt(pos) != CENTRAL_SIGNATURE) {
+                    throw new ZipException("Invalid central directory header");
+                }
+                int nameLength = Short.toUnsignedInt(central.getShort(pos + 28));
+                int extraLength = Short.toUnsignedInt(central.getShort(pos + 30));
+                int commentLength = Short.toUnsignedInt(central.getShort(pos + 32));
+                if (pos + CENTRAL_HEADER_SIZE + nameLength > central.limit()) {
+                    throw new ZipException("Truncated central directory header");
+                }
+                if (central.slice(pos + CENTRAL_HEADER_SIZE, nameLength).equals(name)) {
+                    int method = Short.toUnsignedInt(central.getShort(pos + 10));
+                    long compressedSize = Integer.toUnsignedLong(central.getInt(pos + 20));
+                    long size = Integer.toUnsignedLong(central.getInt(pos + 24));
+                    long localOffset = Integer.toUnsignedLong(central.getInt(pos + 42));
+                    // Also rejects the ZIP64 markers, 0xFFFFFFFF
+                    if (compressedSize >= Integer.MAX_VALUE || size >= Integer.MAX_VALUE) {
+                        throw new ZipException("Entry too large: " + entryName);
+                    }
+                    if (localOffset + LOCAL_HEADER_SIZE + compressedSize > centralOffset) {
+                        throw new ZipException("Local file header out of range: " + entryName);
+                    }
+                    return readLocalEntry(source, localOffset, nameLength + extraLength, method, (int) compressedSize,
+                            (int) size);
+                }
+                pos += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+            }
+            throw new FileNotFoundException(entryName + " not found");
+        }
+
+        private static byte[] readLocalEntry(Source source, long offset, int expectedVariableLength, int method,
+                                             int compressedSize, int size) throws IOException {
+            // The local extra field usually has the same length as the central one, so a single read is enough
+            long expectedLength = (long) LOCAL_HEADER_SIZE + expectedVariableLength + compressedSize;
+            ByteBuffer local = source.read(offset, (int) Math.min(expectedLength, source.size() - offset))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            if (local.limit() < LOCAL_HEADER_SIZE || local.getInt(0) != LOCAL_SIGNATURE) {
+                throw new ZipException("Invalid local file header");
+            }
+            int dataStart = LOCAL_HEADER_SIZE + Short.toUnsignedInt(local.getShort(26)) + Short.toUnsignedInt(local.getShort(28));
+            if (offset + dataStart + compressedSize > source.size()) {
+                throw new ZipException("Entry data out of range");
+            }
+            ByteBuffer data;
+            if (dataStart + compressedSize <= local.limit()) {
+                data = local.slice(dataStart, compressedSize);
+            } else {
+                data = source.read(offset + dataStart, compressedSize);
+            }
+            if (data.remaining() < compressedSize) {
+                throw new ZipException("Truncated entry data");
+            }
+            switch (method) {
+                case ZipEntry.STORED:
+                    byte[] stored = new byte[compressedSize];
+                    data.get(stored);
+                    return stored;
+                case ZipEntry.DEFLATED:
+                    // Deflate expands at most about 1032:1, a larger size is corrupt and would only exhaust the heap
+                    if (size > compressedSize * 1032L + 64) {
+                        throw new ZipException("Invalid size of deflated entry: " + size);
+                    }
+                    Inflater inflater = new Inflater(true);
+                    try {
+                        inflater.setInput(data);
+                        byte[] inflated = new byte[size];
+                        int length = 0;
+                        while (length < size && !inflater.finished()) {
+                            int read = inflater.inflate(inflated, length, size - length);
+                            if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                                throw new ZipException("Truncated deflated entry");
+                            }
+                            length += read;
+                        }
+                        return inflated;
+                    } catch (DataFormatException e) {
+                        throw new ZipException(e.getMessage());
+                    } finally {
+                        inflater.end();
+                    }
+                default:
+                    throw new ZipException("Unsupported compression method " + method);
+            }
+        }
+
+        private static class BufferSource implements Source {
+
+            private final ByteBuffer buffer;
+
+            BufferSource(ByteBuffer buffer) {
+                this.buffer = buffer;
+            }
+
+            @Override
+            public ByteBuffer tail(int length) {
+                int actual = Math.min(length, buffer.limit());
+                return buffer.slice(buffer.limit() - actual, actual);
+            }
+
+            @Override
+            public long size() {
+                return buffer.limit();
+            }
+
+            @Override
+            public ByteBuffer read(long offset, int length) {
+                return buffer.slice((int) offset, length);
+            }
+        }
+
+        private static class HttpSource implements Source {
+
+            private final CloseableHttpClient httpClient;
+
+            private final URI uri;
+
+            private long size = -1;
+
+            // Set when the server ignored the range request and sent the whole archive
+            private BufferSource fullDownload;
+
+            HttpSource(CloseableHttpClient httpClient, URI uri) {
+                this.httpClient = httpClient;
+                this.uri = uri;
+            }
+
+            @Override
+            public ByteBuffer tail(int length) throws IOException {
+                return get("bytes=-" + length);
+            }
+
+            @Override
+            public long size() {
+                return fullDownload != null ? fullDownload.size() : size;
+            }
+
+            @Override
+            public ByteBuffer read(long offset, int length) throws IOException {
+                if (fullDownload != null) {
+                    return fullDownload.read(offset, length);
+                }
+                ByteBuffer range = get("bytes=" + offset + "-" + (offset + length - 1));
+                return fullDownload != null ? fullDownload.read(offset, length) : range;
+            }
+
+            private ByteBuffer get(String range) throws IOException {
+                HttpGet request = new HttpGet(uri);
+                request.setHeader("Range", range);
+                try (CloseableHttpResponse response = httpClient.execute(request)) {
+                    int statusCode = response.getStatusLine().getStatusCode();
+                    byte[] body = EntityUtils.toByteArray(response.getEntity());
+                    if (statusCode == HttpURLConnection.HTTP_PARTIAL) {
+                        // Content-Range: bytes <first>-<last>/<size>
+                        Header contentRange = response.getFirstHeader("Content-Range");
+                        if (contentRange == null) {
+                            // Falls back to the full download, like any other unreadable archive
+                            throw new ZipException(uri + " answered a range request without Content-Range");
+                        }
+                        String value = contentRange.getValue();
+                        try {
+                            size = Long.parseLong(value.substring(value.lastIndexOf('/') + 1).trim());
+                        } catch (NumberFormatException e) {
+                            throw new ZipException(uri + " answered a range request with Content-Range: " + value);
+                        }
+                        return ByteBuffer.wrap(body);
+                    } else if (statusCode == HttpURLConnection.HTTP_OK) {
+                        log.debugf("%s does not support range requests, using the full download", uri);
+                        fullDownload = new BufferSource(ByteBuffer.wrap(body));
+                        return range.startsWith("bytes=-") ? fullDownload.tail(Integer.parseInt(range.substring(7))) : null;
+                    } else {
+                        throw new IOException(uri + " -> " + response.getStatusLine());
+                    }
+                }
+            }
+        }
+    }
+
+    private static String sha256(byte[] content) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
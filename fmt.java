@@ -2,24 +2,68 @@
 //DEPS info.picocli:picocli:4.6.3
 //DEPS org.jboss.forge.roaster:roaster-jdt:2.28.0.Final
 //DEPS io.quarkus:quarkus-ide-config:2.16.3.Final
+//DEPS io.github.java-diff-utils:java-diff-utils:4.12
+//JAVA 17+
+//CDS
 //DESCRIPTION This command will format your sources using the same formatting rules used in the Quarkus Core project
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
+import com.github.difflib.DiffUtils;
+import com.github.difflib.UnifiedDiffUtils;
 import org.jboss.forge.roaster.Roaster;
 import org.jboss.forge.roaster.model.util.FormatterProfileReader;
 
 import picocli.CommandLine;
 
+import static java.lang.System.err;
 import static java.lang.System.out;
 
 @CommandLine.Command(name = "format", aliases = "fmt", header = "Format your source code", description = "%n"
@@ -29,33 +73,621 @@ import static java.lang.System.out;
                 + "quarkus fmt" + "%n" })
 public class fmt implements Callable<Integer> {
 
+    @CommandLine.Option(names = { "-t",
+            "--threads" }, description = "Number of threads formatting the sources. Defaults to the number of processors")
+    int threads = Runtime.getRuntime().availableProcessors();
+
+    @CommandLine.Option(names = {
+            "--no-cache" }, description = "Format every source, even the ones unchanged since the last run according to " + FormatCache.FILE_NAME)
+    boolean noCache;
+
+    @CommandLine.Option(names = {
+            "--changed" }, description = "Only format the sources that are staged, modified or untracked in git")
+    boolean changed;
+
+    @CommandLine.Option(names = {
+            "--base" }, paramLabel = "<ref>", description = "Only format the sources that differ from the given git ref, plus the untracked ones")
+    String base;
+
+    @CommandLine.Option(names = {
+            "--check" }, description = "Do not modify any file, report the sources that need formatting and exit with 1 if there is any")
+    boolean check;
+
+    @CommandLine.Option(names = {
+            "--report" }, description = "Report format used by --check: ${COMPLETION-CANDIDATES}", defaultValue = "DIFF")
+    Report report;
+
+    @CommandLine.Option(names = {
+            "--server" }, description = "Keep the formatter warm in a server listening on --socket, for clients started with --connect")
+    boolean server;
+
+    @CommandLine.Option(names = {
+            "--connect" }, description = "Send the sources to the server listening on --socket instead of formatting them in this JVM")
+    boolean connect;
+
+    @CommandLine.Option(names = {
+            "--socket" }, paramLabel = "<path>", description = "Unix domain socket of the formatter server. Defaults to ${DEFAULT-VALUE}")
+    Path socket = Paths.get(System.getProperty("java.io.tmpdir"), "quarkus-fmt-" + System.getProperty("user.name") + ".sock");
+
+    @CommandLine.Parameters(paramLabel = "<file>", description = "Sources to format instead of the ones under the current directory")
+    List<Path> files;
+
+    @CommandLine.Spec
+    CommandLine.Model.CommandSpec spec;
+
+    private FormatCache cache;
+
+    /**
+     * Prefixes the lines of a server response that report a failure rather than a formatted source.
+     */
+    private static final String ERROR_PREFIX = "error: ";
+
     public static void main(String... args) {
-        int exitCode = new CommandLine(new fmt()).execute(args);
+        int exitCode = new CommandLine(new fmt())
+                .setCaseInsensitiveEnumValuesAllowed(true)
+                .execute(args);
         System.exit(exitCode);
     }
 
     @Override
     public Integer call() throws Exception {
+        if (server && connect) {
+            throw new CommandLine.ParameterException(spec.commandLine(), "--server and --connect are mutually exclusive");
+        }
+        if (connect && check) {
+            throw new CommandLine.ParameterException(spec.commandLine(), "--check is not supported with --connect");
+        }
+        Path root = Paths.get(".");
+        if (connect) {
+            // The client never loads the formatter, that is the whole point of the server
+            return connect(root, sources(root));
+        }
         Properties formatterProperties;
         try (InputStream eclipseFormat = getClass().getClassLoader().getResourceAsStream("eclipse-format.xml")) {
             FormatterProfileReader reader = FormatterProfileReader.fromEclipseXml(eclipseFormat);
             formatterProperties = reader.getPropertiesFor("Quarkus");
         }
-        Path root = Paths.get(".");
+        if (server) {
+            return serve(formatterProperties);
+        }
+        if (!noCache) {
+            cache = FormatCache.load(root.resolve(FormatCache.FILE_NAME), FormatCache.hash(formatterProperties));
+        }
+        // Listed before the report starts, so a failure does not leave a truncated JSON document behind
+        List<Path> sources = sources(root);
+        boolean json = check && report == Report.JSON;
+        if (json) {
+            out.println("{");
+            out.println("  \"files\": [");
+        }
+        AtomicInteger changes = new AtomicInteger();
+        AtomicInteger skipped = new AtomicInteger();
+        try {
+            // Each result is reported as soon as the sources before it are done, a large tree does not wait for the end
+            format(formatterProperties, sources, result -> {
+                if (result instanceof Change change) {
+                    int index = changes.getAndIncrement();
+                    if (!check) {
+                        out.println(display(root, change.file()));
+                    } else if (json) {
+                        printJsonFile(root, change, index);
+                    } else {
+                        printDiff(root, change);
+                    }
+                } else {
+                    err.println(skipReason(display(root, result.file())));
+                    skipped.incrementAndGet();
+                }
+            });
+        } finally {
+            if (json) {
+                // Also closed when formatting fails, the report then lists the files done so far
+                if (changes.get() > 0) {
+                    out.println();
+                }
+                out.println("  ],");
+                out.println("  \"changed\": " + changes.get());
+                out.println("}");
+            }
+        }
+        // --check must not modify anything, the cache included
+        if (cache != null && !check) {
+            cache.save();
+        }
+        if (check && changes.get() > 0) {
+            return 1;
+        }
+        return skipped.get() == 0 ? 0 : 1;
+    }
+
+    private List<Path> sources(Path root) throws IOException, InterruptedException {
+        if (files != null) {
+            return files.stream()
+                    .map(file -> file.isAbsolute() ? file : root.resolve(file))
+                    .collect(Collectors.toList());
+        }
+        return changed || base != null ? changedSources(root) : allSources(root);
+    }
+
+    private static String display(Path root, Path file) {
+        return file.isAbsolute() ? file.toString() : root.relativize(file).toString();
+    }
+
+    private static String skipReason(String path) {
+        return "Skipping " + path + ": not valid UTF-8";
+    }
+
+    /**
+     * Accepts connections until the process is killed. A request is one absolute source path per line, terminated by
+     * an empty line. The response lists the sources that were reformatted, or an {@link #ERROR_PREFIX error}, also
+     * terminated by an empty line.
+     */
+    private int serve(Properties formatterProperties) throws IOException {
+        if (Files.exists(socket, LinkOption.NOFOLLOW_LINKS)) {
+            if (!Files.readAttributes(socket, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).isOther()) {
+                // Most likely a mistyped --socket, which must not cost a file
+                err.println(socket + " exists and is not a socket, remove it or pick another --socket");
+                return 1;
+            }
+            try {
+                SocketChannel.open(UnixDomainSocketAddress.of(socket)).close();
+                err.println("A formatter server is already listening on " + socket);
+                return 1;
+            } catch (IOException e) {
+                // Left over by a server that did not shut down cleanly
+                Files.delete(socket);
+            }
+        }
+        ExecutorService connections = Executors.newCachedThreadPool();
+        try (ServerSocketChannel channel = bind()) {
+            socket.toFile().deleteOnExit();
+            // Loads the JDT formatter classes before the first request
+            Roaster.format(formatterProperties, "class Warmup {}");
+            err.println("Listening on " + socket);
+            while (true) {
+                SocketChannel client = channel.accept();
+                connections.execute(() -> handle(formatterProperties, client));
+            }
+        } finally {
+            connections.shutdownNow();
+        }
+    }
+
+    /**
+     * Anyone able to connect can rewrite the files of this user, so the socket is bound inside a fresh directory that
+     * only this user can enter, restricted to this user, then moved to {@link #socket}. It is never reachable by
+     * others in between, unlike a socket bound in place and restricted afterwards.
+     */
+    private ServerSocketChannel bind() throws IOException {
+        ServerSocketChannel channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            Path directory;
+            try {
+                // A sibling directory, so the move stays on the same file system
+                directory = Files.createTempDirectory(socket.toAbsolutePath().getParent(), ".fmt-",
+                        PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+            } catch (UnsupportedOperationException e) {
+                // Not a POSIX file system, the directory permissions apply
+                channel.bind(UnixDomainSocketAddress.of(socket));
+                return channel;
+            }
+            Path bound = directory.resolve("fmt.sock");
+            try {
+                channel.bind(UnixDomainSocketAddress.of(bound));
+                Files.setPosixFilePermissions(bound, PosixFilePermissions.fromString("rw-------"));
+                Files.move(bound, socket, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(bound);
+                Files.delete(directory);
+            }
+            return channel;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void handle(Properties formatterProperties, SocketChannel client) {
+        try (client;
+                BufferedReader reader = new BufferedReader(Channels.newReader(client, StandardCharsets.UTF_8));
+                PrintWriter writer = new PrintWriter(Channels.newWriter(client, StandardCharsets.UTF_8))) {
+            List<Path> sources = new ArrayList<>();
+            for (String line = reader.readLine(); line != null && !line.isEmpty(); line = reader.readLine()) {
+                sources.add(Paths.get(line));
+            }
+            try {
+                format(formatterProperties, sources, result -> {
+                    writer.println(result instanceof Skipped ? ERROR_PREFIX + skipReason(result.file().toString()) : result.file());
+                    writer.flush();
+                });
+            } catch (IOException | RuntimeException e) {
+                writer.println(ERROR_PREFIX + e);
+            }
+            writer.println();
+            writer.flush();
+        } catch (IOException e) {
+            err.println("Failed to answer a client: " + e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private int connect(Path root, List<Path> sources) throws IOException {
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(UnixDomainSocketAddress.of(socket));
+        } catch (IOException e) {
+            err.println("No formatter server is listening on " + socket + ", start one with --server");
+            return 1;
+        }
+        Map<String, Path> requested = new HashMap<>();
+        try (channel;
+                BufferedReader reader = new BufferedReader(Channels.newReader(channel, StandardCharsets.UTF_8));
+                PrintWriter writer = new PrintWriter(Channels.newWriter(channel, StandardCharsets.UTF_8))) {
+            for (Path source : sources) {
+                // The server does not share the working directory of the client
+                String path = source.toAbsolutePath().normalize().toString();
+                requested.put(path, source);
+                writer.println(path);
+            }
+            writer.println();
+            writer.flush();
+            int exitCode = 0;
+            for (String line = reader.readLine(); line != null && !line.isEmpty(); line = reader.readLine()) {
+                if (line.startsWith(ERROR_PREFIX)) {
+                    err.println(line.substring(ERROR_PREFIX.length()));
+                    exitCode = 1;
+                } else {
+                    out.println(display(root, requested.getOrDefault(line, Paths.get(line))));
+                }
+            }
+            return exitCode;
+        }
+    }
+
+    private void printDiff(Path root, Change change) {
+        String path = display(root, change.file());
+        out.println(String.join(System.lineSeparator(), unifiedDiff(path, change)));
+    }
+
+    /**
+     * Prints one element of the files array. The closing brace is left without a line break, so the separator of
+     * the next element can still be added after it.
+     */
+    private void printJsonFile(Path root, Change change, int index) {
+        String path = display(root, change.file());
+        if (index > 0) {
+            out.println(",");
+        }
+        out.println("    {");
+        out.println("      \"path\": " + jsonString(path) + ",");
+        out.println("      \"diff\": " + jsonString(String.join("\n", unifiedDiff(path, change))));
+        out.print("    }");
+        out.flush();
+    }
+
+    /**
+     * The lines are compared with their terminator, like git does, so a change of line endings or of the trailing
+     * newline shows up in the diff instead of producing an empty one.
+     */
+    private static List<String> unifiedDiff(String path, Change change) {
+        List<String> original = linesWithTerminator(change.source());
+        List<String> revised = linesWithTerminator(change.formatted());
+        List<String> diff = UnifiedDiffUtils.generateUnifiedDiff("a/" + path, "b/" + path, original,
+                DiffUtils.diff(original, revised), 3);
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < diff.size(); i++) {
+            String line = diff.get(i);
+            // The file and hunk headers are the only lines without a terminator of their own
+            if (i < 2 || line.startsWith("@@")) {
+                lines.add(line);
+            } else if (line.endsWith("\n")) {
+                // A CR of a CRLF line ending is kept, as in the output of git diff
+                lines.add(line.substring(0, line.length() - 1));
+            } else {
+                lines.add(line);
+                lines.add("\\ No newline at end of file");
+            }
+        }
+        return lines;
+    }
+
+    private static List<String> linesWithTerminator(String source) {
+        return source.isEmpty() ? List.of() : List.of(source.split("(?<=\n)"));
+    }
+
+    private static String jsonString(String value) {
+        StringBuilder json = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        return json.append('"').toString();
+    }
+
+    private List<Path> allSources(Path root) throws IOException {
+        List<Path> sources = new ArrayList<>();
         Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                return isExcluded(dir) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+            }
+
             @Override
             public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
                 if (file.toString().endsWith(".java")) {
-                    String source = Files.readString(file);
-                    String formattedSource = Roaster.format(formatterProperties, source);
-                    if (!formattedSource.equals(source)) {
-                        out.println(root.relativize(file));
-                        Files.writeString(file, formattedSource);
-                    }
+                    sources.add(file);
                 }
                 return FileVisitResult.CONTINUE;
             }
         });
-        return 0;
+        return sources;
+    }
+
+    /**
+     * Lists the sources that are staged, modified or untracked, or that differ from {@link #base} when set.
+     */
+    private List<Path> changedSources(Path root) throws IOException, InterruptedException {
+        Set<String> names = new TreeSet<>();
+        // --relative gives paths relative to the current directory, like ls-files does
+        if (base != null || hasHead()) {
+            names.addAll(git("diff", "--name-only", "-z", "--relative", "--diff-filter=d", base != null ? base : "HEAD"));
+        } else {
+            // No commit yet: everything staged is new, the rest is untracked
+            names.addAll(git("diff", "--cached", "--name-only", "-z", "--relative", "--diff-filter=d"));
+        }
+        names.addAll(git("ls-files", "-z", "--others", "--exclude-standard"));
+        List<Path> sources = new ArrayList<>();
+        for (String name : names) {
+            Path file = root.resolve(name);
+            if (name.endsWith(".java") && Files.isRegularFile(file) && !isInExcludedDirectory(file)) {
+                sources.add(file);
+            }
+        }
+        return sources;
+    }
+
+    private static boolean hasHead() throws IOException, InterruptedException {
+        return new ProcessBuilder("git", "rev-parse", "--verify", "--quiet", "HEAD")
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start()
+                .waitFor() == 0;
+    }
+
+    private static List<String> git(String... args) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add("git");
+        command.addAll(List.of(args));
+        Process process = new ProcessBuilder(command)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        if (process.waitFor() != 0) {
+            throw new IOException(String.join(" ", command) + " failed with exit code " + process.exitValue());
+        }
+        return Arrays.stream(output.split("\0"))
+                .filter(name -> !name.isEmpty())
+                .collect(Collectors.toList());
+    }
+
+    private static boolean isInExcludedDirectory(Path file) {
+        for (Path dir = file.getParent(); dir != null; dir = dir.getParent()) {
+            if (isExcluded(dir)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * VCS metadata is always skipped. target and build are only skipped next to the Maven or Gradle build file that
+     * produces them, since they are also valid package names.
+     */
+    private static boolean isExcluded(Path dir) {
+        Path name = dir.getFileName();
+        if (name == null) {
+            return false;
+        }
+        switch (name.toString()) {
+            case ".git":
+            case ".hg":
+            case ".svn":
+            case ".gradle":
+                return true;
+            case "target":
+                return Files.exists(dir.resolveSibling("pom.xml"));
+            case "build":
+                return Files.exists(dir.resolveSibling("build.gradle")) || Files.exists(dir.resolveSibling("build.gradle.kts"));
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Formats the sources in parallel and passes the ones that changed or were skipped to the consumer, sorted by
+     * path so the output does not depend on the scheduling. A result is passed as soon as it and the results before
+     * it are available. Only a window of a few sources per thread is in progress or waiting to be passed at once, so
+     * the memory held by the results does not grow with the tree.
+     */
+    private void format(Properties formatterProperties, List<Path> sources, Consumer<Result> results)
+            throws IOException, InterruptedException {
+        int parallelism = Math.max(1, threads);
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            Deque<Future<Result>> window = new ArrayDeque<>();
+            Iterator<Path> files = new TreeSet<>(sources).iterator();
+            while (files.hasNext() || !window.isEmpty()) {
+                // Enough work ahead for the threads to keep busy while the first result is waited for
+                while (files.hasNext() && window.size() < parallelism * 4) {
+                    Path file = files.next();
+                    window.add(pool.submit(() -> format(formatterProperties, file)));
+                }
+                Result result = window.poll().get();
+                if (result != null) {
+                    results.accept(result);
+                }
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the change, a skip if the source is not valid UTF-8, or {@code null} if the source is already formatted
+     */
+    private Result format(Properties formatterProperties, Path file) {
+        try {
+            byte[] content = Files.readAllBytes(file);
+            String hash = null;
+            if (cache != null) {
+                hash = FormatCache.hash(content);
+                if (cache.isFormatted(file, hash)) {
+                    return null;
+                }
+            }
+            String source;
+            try {
+                source = StandardCharsets.UTF_8.newDecoder()
+                        .onMalformedInput(CodingErrorAction.REPORT)
+                        .onUnmappableCharacter(CodingErrorAction.REPORT)
+                        .decode(ByteBuffer.wrap(content))
+                        .toString();
+            } catch (CharacterCodingException e) {
+                // Writing it back as UTF-8 would replace the bytes that could not be decoded
+                return new Skipped(file);
+            }
+            String formattedSource = Roaster.format(formatterProperties, source);
+            if (formattedSource.equals(source)) {
+                if (cache != null) {
+                    cache.formatted(file, hash);
+                }
+                return null;
+            }
+            if (!check) {
+                byte[] formattedContent = formattedSource.getBytes(StandardCharsets.UTF_8);
+                Files.write(file, formattedContent);
+                if (cache != null) {
+                    cache.formatted(file, FormatCache.hash(formattedContent));
+                }
+            }
+            return new Change(file, source, formattedSource);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    enum Report {
+        DIFF,
+        JSON
+    }
+
+    sealed interface Result permits Change, Skipped {
+
+        Path file();
+    }
+
+    record Change(Path file, String source, String formatted) implements Result {
+    }
+
+    record Skipped(Path file) implements Result {
+    }
+
+    /**
+     * Remembers the content hash of each source as it was after formatting, so unchanged sources are skipped on the
+     * next run. The first line holds the hash of the formatter profile: when the profile changes, the cache is
+     * discarded.
+     */
+    static class FormatCache {
+
+        static final String FILE_NAME = ".fmt-cache";
+
+        private final Path file;
+
+        private final String profileHash;
+
+        private final Map<String, String> hashes = new ConcurrentHashMap<>();
+
+        private FormatCache(Path file, String profileHash) {
+            this.file = file;
+            this.profileHash = profileHash;
+        }
+
+        static FormatCache load(Path file, String profileHash) throws IOException {
+            FormatCache cache = new FormatCache(file, profileHash);
+            if (Files.exists(file)) {
+                List<String> lines = Files.readAllLines(file);
+                if (!lines.isEmpty() && lines.get(0).equals("profile " + profileHash)) {
+                    for (String line : lines.subList(1, lines.size())) {
+                        int separator = line.indexOf(' ');
+                        if (separator > 0) {
+                            cache.hashes.put(line.substring(separator + 1), line.substring(0, separator));
+                        }
+                    }
+                }
+            }
+            return cache;
+        }
+
+        boolean isFormatted(Path source, String hash) {
+            return hash.equals(hashes.get(key(source)));
+        }
+
+        void formatted(Path source, String hash) {
+            hashes.put(key(source), hash);
+        }
+
+        void save() throws IOException {
+            StringBuilder content = new StringBuilder("profile ").append(profileHash).append('\n');
+            for (Map.Entry<String, String> entry : new TreeMap<>(hashes).entrySet()) {
+                if (Files.exists(Paths.get(entry.getKey()))) {
+                    content.append(entry.getValue()).append(' ').append(entry.getKey()).append('\n');
+                }
+            }
+            Files.writeString(file, content);
+        }
+
+        private static String key(Path source) {
+            return source.normalize().toString();
+        }
+
+        static String hash(Properties formatterProperties) {
+            return hash(new TreeMap<>(formatterProperties).toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        static String hash(byte[] content) {
+            try {
+                return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
     }
 }
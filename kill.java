@@ -8,25 +8,58 @@ import io.smallrye.common.os.OS;
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
+import picocli.CommandLine.Spec;
+import picocli.CommandLine.Model.CommandSpec;
 
 import static java.lang.System.out;
 
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
 
 import org.zeroturnaround.exec.ProcessExecutor;
 
 @Command(name = "quarkus-kill", mixinStandardHelpOptions = true, version = "0.1", description = "quarkus-kill made with jbang")
 class kill implements Callable<Integer> {
 
-    @Option(names = { "--port", "-p" }, description = "Port to try kill", defaultValue = "8080")
-    int port;
+    private static final Path PROC = Path.of("/proc");
+
+    private static final List<Path> PROC_NET_TCP = List.of(PROC.resolve("net/tcp"), PROC.resolve("net/tcp6"));
+
+    private static final String TCP_LISTEN = "0A";
+
+    @Option(names = { "--port",
+            "-p" }, split = ",", paramLabel = "<port>", description = "Ports to try kill, as a list of ports and ranges: 8080,5005,9000-9010", defaultValue = "8080")
+    List<String> portSpecs;
 
     @Option(names = { "--force", "-9", "-f" }, description = "Force kill")
     boolean force;
 
+    @Option(names = { "--graceful",
+            "-g" }, description = "Ask the processes to stop, force kill the ones still running after --timeout, then check the ports are free")
+    boolean graceful;
+
+    @Option(names = { "--timeout" }, description = "Seconds given to the processes to stop in --graceful mode", defaultValue = "10")
+    int timeout;
+
+    @Spec
+    CommandSpec spec;
+
     public static void main(String... args) {
         int exitCode = new CommandLine(new kill()).execute(args);
         System.exit(exitCode);
@@ -35,75 +68,291 @@ class kill implements Callable<Integer> {
     @Override
     public Integer call() throws Exception { // your business logic goes here...
 
-        final HashSet<String> kills = new HashSet<String>();
-        System.out.println("Scanning for processes using port " + port + " ...");
+        if (graceful && force) {
+            throw new CommandLine.ParameterException(spec.commandLine(), "--graceful and --force are mutually exclusive");
+        }
+        Set<Integer> ports = parsePorts();
+        System.out.println("Scanning for processes using port " + String.join(",", portSpecs) + " ...");
+
+        Map<Integer, Set<Long>> listening = listeningPids(ports);
+        Set<Long> pids = new TreeSet<>();
+        // A process may listen on several of the ports, it is only killed once
+        listening.values().forEach(pids::addAll);
+
+        if (pids.isEmpty()) {
+            out.println("No process killed or not found any process on port " + String.join(",", portSpecs));
+            out.println("If looking for a different port use --port <port>");
+            return 0;
+        }
+
+        if (graceful) {
+            return killGracefully(ports, listening, pids);
+        }
+
+        Map<Long, String> outcomes = new HashMap<>();
+        for (long pid : pids) {
+            outcomes.put(pid, kill(pid, force) ? "killed" : "failed to kill");
+        }
+        printSummary(listening, outcomes);
+
+        return 0;
+    }
+
+    /**
+     * Asks every process to stop at once, then waits for all of them together: the wait is bounded by --timeout
+     * whatever the number of processes. The survivors are force killed.
+     */
+    private int killGracefully(Set<Integer> ports, Map<Integer, Set<Long>> listening, Set<Long> pids) throws Exception {
+        Map<Long, String> outcomes = new HashMap<>();
+        Map<Long, ProcessHandle> handles = new TreeMap<>();
+        for (long pid : pids) {
+            Optional<ProcessHandle> handle = ProcessHandle.of(pid);
+            if (handle.isPresent()) {
+                // Even if the request failed, the process is force killed below if it is still running
+                kill(pid, false);
+                handles.put(pid, handle.get());
+            } else {
+                outcomes.put(pid, "stopped");
+            }
+        }
+        awaitExit(handles.values(), timeout);
+
+        List<ProcessHandle> survivors = new ArrayList<>();
+        for (Map.Entry<Long, ProcessHandle> entry : handles.entrySet()) {
+            long pid = entry.getKey();
+            if (!entry.getValue().isAlive()) {
+                outcomes.put(pid, "stopped");
+            } else {
+                out.println("Process " + pid + " still running after " + timeout + "s");
+                if (kill(pid, true)) {
+                    outcomes.put(pid, "force killed");
+                    survivors.add(entry.getValue());
+                } else {
+                    outcomes.put(pid, "failed to kill");
+                }
+            }
+        }
+        // SIGKILL cannot be handled by the process, the kernel only needs a moment to release the sockets
+        awaitExit(survivors, 1);
+        printSummary(listening, outcomes);
+
+        Map<Integer, Set<Long>> stillListening = listeningPids(ports);
+        if (!stillListening.isEmpty()) {
+            for (Map.Entry<Integer, Set<Long>> entry : stillListening.entrySet()) {
+                System.err.println("Port " + entry.getKey() + " is still in use by " + entry.getValue().stream()
+                        .map(String::valueOf)
+                        .collect(Collectors.joining(", ")));
+            }
+            return 1;
+        }
+        out.println("Port " + String.join(",", portSpecs) + " is free");
+        return 0;
+    }
+
+    private static void awaitExit(Collection<ProcessHandle> processes, int seconds) throws Exception {
+        CompletableFuture<?>[] exits = processes.stream()
+                .map(ProcessHandle::onExit)
+                .toArray(CompletableFuture[]::new);
+        try {
+            CompletableFuture.allOf(exits).get(seconds, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            // The survivors are checked one by one
+        }
+    }
+
+    private static void printSummary(Map<Integer, Set<Long>> listening, Map<Long, String> outcomes) {
+        for (Map.Entry<Integer, Set<Long>> entry : listening.entrySet()) {
+            out.println("Port " + entry.getKey() + ": " + entry.getValue().stream()
+                    .map(pid -> outcomes.get(pid) + " " + pid)
+                    .collect(Collectors.joining(", ")));
+        }
+    }
 
+    /**
+     * A single scan of the socket table, whatever the number of ports.
+     */
+    private static Map<Integer, Set<Long>> listeningPids(Set<Integer> ports) throws Exception {
         if (OS.WINDOWS.isCurrent()) {
-            List<String> args = List.of("netstat", "-ano");
-            String output = new ProcessExecutor().command(args)
-                    .readOutput(true).execute().outputUTF8();
+            return netstatListeningPids(ports);
+        } else if (OS.LINUX.isCurrent() && Files.isReadable(PROC_NET_TCP.get(0))) {
+            return procListeningPids(ports);
+        }
+        return lsofListeningPids(ports);
+    }
 
-            output.lines().forEach(line -> {
-                if (!line.contains("LISTENING")) {
-                    return;
+    private Set<Integer> parsePorts() {
+        Set<Integer> ports = new TreeSet<>();
+        for (String portSpec : portSpecs) {
+            try {
+                int dash = portSpec.indexOf('-');
+                int first = Integer.parseInt(portSpec.substring(0, dash < 0 ? portSpec.length() : dash).trim());
+                int last = dash < 0 ? first : Integer.parseInt(portSpec.substring(dash + 1).trim());
+                if (first < 1 || last > 65535 || first > last) {
+                    throw new NumberFormatException();
                 }
-                String[] parts = line.split("\\s+");
-                if (parts.length >= 5) {
-                    String listen = parts[2];
-                    String pid = parts[parts.length-1];
-                    try {
-                        if(listen.endsWith(":" + port) && !"0".equals(pid)) {
-                        kills.add(pid);
-                        out.println("Kill " + pid);
-                        List<String> cmd = new ArrayList<>();
-                        cmd.add("taskkill");
-                        if(force) {
-                            cmd.add("/F");
-                        }
-                        cmd.add("/T");
-                        cmd.add("/PID");
-                        cmd.add(pid);
-                        int res = new ProcessExecutor().command(cmd).readOutput(true).execute().getExitValue();
-                        if(res!=0) {
-                            System.err.println("Process " + pid + " not killed. Try again using --force");
-                            kills.remove(pid);
-                        }
-                    }
-                    } catch (Exception e) {
-                        System.err.println("Error killing " + pid);
-                        kills.remove(pid);
-                    }
+                for (int port = first; port <= last; port++) {
+                    ports.add(port);
                 }
-            });
+            } catch (NumberFormatException e) {
+                throw new CommandLine.ParameterException(spec.commandLine(), "Invalid port or port range: " + portSpec);
+            }
+        }
+        return ports;
+    }
 
-        } else {
+    private boolean kill(long pid, boolean forcibly) {
+        out.println("Killing " + pid);
+        if (!OS.WINDOWS.isCurrent()) {
+            if (!signal(pid, forcibly)) {
+                System.err.println("Error killing " + pid);
+                return false;
+            }
+            return true;
+        }
+        try {
+            List<String> cmd = new ArrayList<>();
+            cmd.add("taskkill");
+            if (forcibly) {
+                cmd.add("/F");
+            }
+            cmd.add("/T");
+            cmd.add("/PID");
+            cmd.add(String.valueOf(pid));
+            int res = new ProcessExecutor().command(cmd).readOutput(true).execute().getExitValue();
+            if (res != 0) {
+                if (!graceful) {
+                    System.err.println("Process " + pid + " not killed. Try again using --force");
+                }
+                return false;
+            }
+            return true;
+        } catch (Exception e) {
+            System.err.println("Error killing " + pid);
+            return false;
+        }
+    }
 
-            String output = new ProcessExecutor().command("lsof", "-i:" + port)
-                    .readOutput(true).execute().outputUTF8();
+    /**
+     * @return the processes listening on each of the ports, ports without any listener are left out
+     */
+    private static Map<Integer, Set<Long>> netstatListeningPids(Set<Integer> ports) throws Exception {
+        Map<Integer, Set<Long>> listening = new TreeMap<>();
+        String output = new ProcessExecutor().command("netstat", "-ano")
+                .readOutput(true).execute().outputUTF8();
+        output.lines().forEach(line -> {
+            if (!line.contains("LISTENING")) {
+                return;
+            }
+            String[] parts = line.trim().split("\\s+");
+            if (parts.length >= 5) {
+                // 0.0.0.0:8080 or [::]:8080
+                String listen = parts[1];
+                String pid = parts[parts.length - 1];
+                Integer port = parsePort(listen.substring(listen.lastIndexOf(':') + 1), 10);
+                if (port != null && ports.contains(port) && !"0".equals(pid)) {
+                    listening.computeIfAbsent(port, p -> new TreeSet<>()).add(Long.parseLong(pid));
+                }
+            }
+        });
+        return listening;
+    }
 
-            output.lines().skip(1).forEach(line -> {
-                if (!line.contains("(LISTEN)")) {
-                    return;
+    /**
+     * Lists every TCP listener at once, in the field output format: a p line with the PID, followed by an n line
+     * per socket with its address.
+     */
+    private static Map<Integer, Set<Long>> lsofListeningPids(Set<Integer> ports) throws Exception {
+        Map<Integer, Set<Long>> listening = new TreeMap<>();
+        String output = new ProcessExecutor().command("lsof", "-nP", "-iTCP", "-sTCP:LISTEN", "-Fpn")
+                .readOutput(true).execute().outputUTF8();
+        long pid = -1;
+        for (String line : output.lines().collect(Collectors.toList())) {
+            if (line.startsWith("p")) {
+                pid = Long.parseLong(line.substring(1));
+            } else if (line.startsWith("n") && pid > 0) {
+                Integer port = parsePort(line.substring(line.lastIndexOf(':') + 1), 10);
+                if (port != null && ports.contains(port)) {
+                    listening.computeIfAbsent(port, p -> new TreeSet<>()).add(pid);
                 }
-                String[] parts = line.split("\\s+");
-                String pid = parts[1];
-                try {
-                    out.println("Killing " + pid);
-                    new ProcessExecutor().command("kill", force ? "-9" : "-15", pid).execute();
-                    kills.add(pid);
-                } catch (Exception e) {
-                    System.err.println("Error killing " + pid);
+            }
+        }
+        return listening;
+    }
+
+    /**
+     * Finds the processes listening on the ports from the kernel socket tables: the inodes of the listening sockets
+     * come from /proc/net/tcp and /proc/net/tcp6, then the file descriptors of each process are searched for them.
+     * Processes of other users cannot be inspected unless running as root.
+     */
+    static Map<Integer, Set<Long>> procListeningPids(Set<Integer> ports) throws IOException {
+        Map<String, Integer> inodes = new HashMap<>();
+        for (Path table : PROC_NET_TCP) {
+            if (!Files.isReadable(table)) {
+                // No IPv6 support
+                continue;
+            }
+            Files.readAllLines(table).stream().skip(1).forEach(line -> {
+                // sl local_address rem_address st tx_queue:rx_queue tr:tm->when retrnsmt uid timeout inode ...
+                String[] parts = line.trim().split("\\s+");
+                String localAddress = parts[1];
+                Integer port = parsePort(localAddress.substring(localAddress.lastIndexOf(':') + 1), 16);
+                if (port != null && ports.contains(port) && TCP_LISTEN.equals(parts[3]) && !"0".equals(parts[9])) {
+                    inodes.put("socket:[" + parts[9] + "]", port);
                 }
             });
+        }
+        Map<Integer, Set<Long>> listening = new TreeMap<>();
+        if (inodes.isEmpty()) {
+            return listening;
+        }
+        long self = ProcessHandle.current().pid();
+        try (DirectoryStream<Path> processes = Files.newDirectoryStream(PROC,
+                dir -> dir.getFileName().toString().chars().allMatch(Character::isDigit))) {
+            for (Path process : processes) {
+                long pid = Long.parseLong(process.getFileName().toString());
+                if (pid != self) {
+                    for (int port : ownedPorts(process, inodes)) {
+                        listening.computeIfAbsent(port, p -> new TreeSet<>()).add(pid);
+                    }
+                }
+            }
+        }
+        return listening;
+    }
 
-            
+    private static Set<Integer> ownedPorts(Path process, Map<String, Integer> inodes) {
+        Set<Integer> ports = new TreeSet<>();
+        try (DirectoryStream<Path> fds = Files.newDirectoryStream(process.resolve("fd"))) {
+            for (Path fd : fds) {
+                try {
+                    Integer port = inodes.get(Files.readSymbolicLink(fd).toString());
+                    if (port != null) {
+                        ports.add(port);
+                    }
+                } catch (IOException e) {
+                    // Closed in the meantime
+                }
+            }
+        } catch (IOException e) {
+            // Exited in the meantime, or owned by another user
         }
+        return ports;
+    }
 
-        if (kills.isEmpty()) {
-            out.println("No process killed or not found any process on port " + port);
-            out.println("If looking for a different port use --port <port>");
+    private static Integer parsePort(String port, int radix) {
+        try {
+            return Integer.parseInt(port, radix);
+        } catch (NumberFormatException e) {
+            return null;
         }
-        
-        return 0;
+    }
+
+    /**
+     * Sends SIGTERM, or SIGKILL when forcibly, without forking kill.
+     */
+    private static boolean signal(long pid, boolean forcibly) {
+        return ProcessHandle.of(pid)
+                .map(process -> forcibly ? process.destroyForcibly() : process.destroy())
+                .orElse(false);
     }
 }
@@ -0,0 +1,137 @@
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Runs the handlers of the bot on virtual threads, with at most maxInFlight of them calling GitHub at the same time
+ * and at most maxQueued waiting for their turn.
+ * <p>
+ * A webhook is acknowledged before its handlers run, so GitHub never delivers it again: a handler is never dropped.
+ * When the queue is full, the dispatching thread waits up to queueTimeout for a slot, then runs the handler itself.
+ * Either way it stops taking new events, which pushes back on the event dispatch instead of piling up threads.
+ */
+class Dispatcher implements AutoCloseable {
+
+    // A handler blocked on the GitHub API only parks its virtual thread, a webhook burst does not exhaust a pool
+    private final ExecutorService handlers = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final Semaphore inFlight;
+
+    private final Semaphore queueSlots;
+
+    private final int maxInFlight;
+
+    private final Duration queueTimeout;
+
+    private final AtomicInteger queued = new AtomicInteger();
+
+    private final AtomicLong saturated = new AtomicLong();
+
+    private final Consumer<String> onSaturated;
+
+    private final BiConsumer<String, Exception> onFailure;
+
+    /**
+     * @param onSaturated called with the name of a handler that found the queue full for queueTimeout
+     * @param onFailure called with the name of a handler and the exception it threw
+     */
+    Dispatcher(int maxInFlight, int maxQueued, Duration queueTimeout, Consumer<String> onSaturated,
+            BiConsumer<String, Exception> onFailure) {
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.queueSlots = new Semaphore(maxQueued);
+        this.queueTimeout = queueTimeout;
+        this.onSaturated = onSaturated;
+        this.onFailure = onFailure;
+    }
+
+    /**
+     * Hands the handler to a virtual thread, waiting for a queue slot first if needed. Returns once the handler is
+     * queued, or once it ran on the calling thread when no slot freed up in time.
+     */
+    void dispatch(String name, GitHubCall call) {
+        try {
+            if (!queueSlots.tryAcquire(queueTimeout.toNanos(), TimeUnit.NANOSECONDS)) {
+                saturated.incrementAndGet();
+                onSaturated.accept(name);
+                inFlight.acquire();
+                invoke(name, call);
+                return;
+            }
+        } catch (InterruptedException e) {
+            // Only happens on shutdown
+            Thread.currentThread().interrupt();
+            onFailure.accept(name, e);
+            return;
+        }
+        queued.incrementAndGet();
+        handlers.execute(() -> {
+            try {
+                inFlight.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                onFailure.accept(name, e);
+                return;
+            } finally {
+                queued.decrementAndGet();
+                queueSlots.release();
+            }
+            invoke(name, call);
+        });
+    }
+
+    /**
+     * Runs the handler, which already holds an in-flight permit.
+     */
+    private void invoke(String name, GitHubCall call) {
+        try {
+            call.run();
+        } catch (IOException | RuntimeException e) {
+            onFailure.accept(name, e);
+        } finally {
+            inFlight.release();
+        }
+    }
+
+    /**
+     * @return the number of handlers waiting for an in-flight permit
+     */
+    int queued() {
+        return queued.get();
+    }
+
+    /**
+     * @return the number of handlers calling GitHub
+     */
+    int inFlight() {
+        return maxInFlight - inFlight.availablePermits();
+    }
+
+    /**
+     * @return the number of handlers that ran on the dispatching thread because the queue stayed full
+     */
+    long saturated() {
+        return saturated.get();
+    }
+
+    /**
+     * Lets the dispatched handlers finish.
+     */
+    @Override
+    public void close() {
+        handlers.close();
+    }
+
+    @FunctionalInterface
+    interface GitHubCall {
+
+        void run() throws IOException;
+    }
+}
@@ -0,0 +1,113 @@
+///usr/bin/env jbang "$0" "$@" ; exit $?
+//JAVA 21+
+//DEPS org.junit.platform:junit-platform-console-standalone:1.11.4
+//SOURCES Dispatcher.java
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.console.ConsoleLauncher;
+
+/**
+ * Run with {@code jbang DispatcherTest.java}.
+ */
+class DispatcherTest {
+
+    private final List<String> saturated = new CopyOnWriteArrayList<>();
+
+    private final List<Exception> failures = new CopyOnWriteArrayList<>();
+
+    // Name of each handler that ran, and the thread it ran on
+    private final Map<String, Thread> ran = new ConcurrentHashMap<>();
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private Dispatcher dispatcher;
+
+    public static void main(String... args) {
+        ConsoleLauncher.main("execute", "--disable-banner", "--select-class", DispatcherTest.class.getName());
+    }
+
+    @AfterEach
+    void close() {
+        release.countDown();
+        dispatcher.close();
+        assertEquals(List.of(), failures);
+    }
+
+    @Test
+    void saturatedQueueRunsTheHandlerOnTheDispatchingThread() throws Exception {
+        dispatcher = new Dispatcher(1, 1, Duration.ofMillis(200), saturated::add, (name, e) -> failures.add(e));
+        dispatcher.dispatch("in flight", blocking("in flight"));
+        dispatcher.dispatch("queued", blocking("queued"));
+        awaitQueued(1);
+
+        CountDownLatch dispatched = new CountDownLatch(1);
+        Thread eventThread = Thread.ofPlatform().start(() -> {
+            dispatcher.dispatch("overflow", blocking("overflow"));
+            dispatched.countDown();
+        });
+        // The dispatching thread waits for a queue slot, then for a permit: it takes no other event meanwhile
+        assertFalse(dispatched.await(500, TimeUnit.MILLISECONDS));
+        assertEquals(List.of("overflow"), saturated);
+        assertEquals(1, dispatcher.saturated());
+
+        release.countDown();
+        assertTrue(dispatched.await(5, TimeUnit.SECONDS));
+        dispatcher.close();
+        // No handler was dropped
+        assertEquals(Set.of("in flight", "queued", "overflow"), ran.keySet());
+        assertEquals(eventThread, ran.get("overflow"));
+        assertEquals(0, dispatcher.queued());
+        assertEquals(0, dispatcher.inFlight());
+    }
+
+    @Test
+    void slotFreedWithinTheTimeoutQueuesTheHandler() throws Exception {
+        dispatcher = new Dispatcher(1, 1, Duration.ofSeconds(10), saturated::add, (name, e) -> failures.add(e));
+        dispatcher.dispatch("in flight", blocking("in flight"));
+        dispatcher.dispatch("queued", blocking("queued"));
+        awaitQueued(1);
+
+        Thread eventThread = Thread.ofPlatform().start(() -> dispatcher.dispatch("waiting", blocking("waiting")));
+        Thread.sleep(200);
+        release.countDown();
+        eventThread.join(TimeUnit.SECONDS.toMillis(5));
+        dispatcher.close();
+
+        assertEquals(Set.of("in flight", "queued", "waiting"), ran.keySet());
+        assertTrue(ran.get("waiting").isVirtual());
+        assertEquals(List.of(), saturated);
+        assertEquals(0, dispatcher.saturated());
+    }
+
+    private Dispatcher.GitHubCall blocking(String name) {
+        return () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            ran.put(name, Thread.currentThread());
+        };
+    }
+
+    private void awaitQueued(int expected) throws InterruptedException {
+        for (int i = 0; i < 100 && dispatcher.queued() != expected; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, dispatcher.queued());
+    }
+}
@@ -0,0 +1,376 @@
+///usr/bin/env jbang "$0" "$@" ; exit $?
+//JAVA 21+
+//DEPS info.picocli:picocli:4.7.7
+//DEPS com.fasterxml.jackson.core:jackson-databind:2.18.3
+//DESCRIPTION Replays the recorded webhook payloads against the bot, backed by a stub GitHub API, and reports latency and throughput
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+
+import static java.lang.System.err;
+import static java.lang.System.out;
+
+/**
+ * Fires the payloads recorded in quarkus.github-app.debug.payload-directory at a running bot. The bot talks to a
+ * stub GitHub API started by this script instead of api.github.com, start it with:
+ *
+ * <pre>
+ * jbang -Dquarkus.github-app.instance-endpoint=http://localhost:8089 mybot.java
+ * </pre>
+ *
+ * Two latencies are reported: the time the bot takes to acknowledge a delivery, and the time until its handler
+ * reaches the GitHub API about the issue or pull request of the delivery, queueing included. Each delivery is given
+ * an issue or pull request number of its own, so the first call about that number is the one of its handler.
+ */
+@Command(name = "replay", mixinStandardHelpOptions = true, description = "Replays the recorded webhook payloads against the bot and reports latency and throughput")
+class replay implements Callable<Integer> {
+
+    // yyyy-MM-dd-HH-mm-ss-<event>-[<action>-]<delivery id>.json, as written by quarkus-github-app
+    private static final Pattern RECORDED_PAYLOAD = Pattern.compile("\\d{4}(?:-\\d{2}){5}-([a-z_]+)-.*\\.json");
+
+    private static final Pattern ISSUE_PATH = Pattern.compile("/repos/([^/]+/[^/]+)/(?:issues|pulls)/(\\d+)(?:/|$)");
+
+    private static final Pattern ACCESS_TOKEN_PATH = Pattern.compile("/app/installations/\\d+/access_tokens");
+
+    @Option(names = { "-d", "--payloads" }, description = "Directory of the recorded payloads", defaultValue = "payloads")
+    Path payloads;
+
+    @Option(names = { "-u", "--url" }, description = "Webhook URL of the bot", defaultValue = "http://localhost:8080/")
+    URI url;
+
+    @Option(names = { "--secret" }, description = "Webhook secret of the bot. Defaults to QUARKUS_GITHUB_APP_WEBHOOK_SECRET from the environment or .env")
+    String secret;
+
+    @Option(names = { "-n", "--count" }, description = "Number of deliveries, the payloads are cycled through. Defaults to one delivery per payload")
+    Integer count;
+
+    @Option(names = { "-r", "--rate" }, description = "Deliveries per second, 0 for as fast as the concurrency allows", defaultValue = "0")
+    double rate;
+
+    @Option(names = { "-c", "--concurrency" }, description = "Maximum number of deliveries waiting for the bot to acknowledge them", defaultValue = "16")
+    int concurrency;
+
+    @Option(names = { "--stub-port" }, description = "Port of the stub GitHub API", defaultValue = "8089")
+    int stubPort;
+
+    @Option(names = { "--settle" }, description = "Seconds without GitHub API calls after which the handlers are considered done", defaultValue = "3")
+    int settle;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final List<Long> acknowledgeLatencies = Collections.synchronizedList(new ArrayList<>());
+
+    private final List<Long> handlingLatencies = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * Send times of the deliveries whose handler did not reach the GitHub API yet, per repository and number.
+     */
+    private final Map<String, Long> pendingHandlers = new ConcurrentHashMap<>();
+
+    // Above the numbers of real issues, a replayed delivery does not collide with a recorded one
+    private final AtomicLong nextNumber = new AtomicLong(1_000_000_000L);
+
+    private final AtomicInteger failures = new AtomicInteger();
+
+    private final AtomicInteger apiCalls = new AtomicInteger();
+
+    private final AtomicLong lastApiCall = new AtomicLong();
+
+    /**
+     * @param repository the repository of the issue or pull request of the payload, or null if it has none
+     */
+    record Delivery(String name, String event, JsonNode payload, String repository) {
+    }
+
+    public static void main(String... args) {
+        System.exit(new CommandLine(new replay()).execute(args));
+    }
+
+    @Override
+    public Integer call() throws Exception {
+        List<Delivery> deliveries = loadDeliveries();
+        if (deliveries.isEmpty()) {
+            err.println("No payload found in " + payloads + ", run the bot with quarkus.github-app.debug.payload-directory set first");
+            return 1;
+        }
+        if (secret == null) {
+            secret = webhookSecret();
+        }
+        HttpServer stub = startStub();
+        out.println("Stub GitHub API listening on http://localhost:" + stubPort
+                + ", the bot must run with -Dquarkus.github-app.instance-endpoint=http://localhost:" + stubPort);
+        int total = count != null ? count : deliveries.size();
+        out.println("Replaying " + total + " deliveries from " + deliveries.size() + " payloads to " + url);
+
+        long start = System.nanoTime();
+        long sent;
+        try (HttpClient client = HttpClient.newBuilder().executor(Executors.newVirtualThreadPerTaskExecutor()).build();
+                ExecutorService senders = Executors.newVirtualThreadPerTaskExecutor()) {
+            Semaphore inFlight = new Semaphore(concurrency);
+            long interval = rate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / rate) : 0;
+            for (int i = 0; i < total; i++) {
+                if (interval > 0) {
+                    long wait = start + i * interval - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                }
+                inFlight.acquire();
+                Delivery delivery = deliveries.get(i % deliveries.size());
+                senders.execute(() -> {
+                    try {
+                        deliver(client, delivery);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+            senders.shutdown();
+            senders.awaitTermination(1, TimeUnit.HOURS);
+            sent = System.nanoTime();
+        }
+        // The settle time counts from the last call, or from the last delivery; nanoTime values compare by difference
+        lastApiCall.accumulateAndGet(sent, (last, now) -> last - now > 0 ? last : now);
+        // The bot acknowledges a delivery before its handlers run, they are done once the stub stops being called
+        while (System.nanoTime() - lastApiCall.get() < TimeUnit.SECONDS.toNanos(settle)) {
+            Thread.sleep(100);
+        }
+        stub.stop(0);
+
+        double seconds = (sent - start) / 1e9;
+        out.printf("Deliveries:        %d (%d failed) in %.2f s, %.1f/s%n", total, failures.get(), seconds, total / seconds);
+        out.println("Acknowledge:       " + percentiles(acknowledgeLatencies));
+        out.println("Handling:          " + percentiles(handlingLatencies) + " over the " + handlingLatencies.size()
+                + " deliveries whose handler called the GitHub API about their issue or pull request");
+        out.println("GitHub API calls:  " + apiCalls.get());
+        return failures.get() == 0 ? 0 : 1;
+    }
+
+    private List<Delivery> loadDeliveries() throws IOException {
+        List<Delivery> deliveries = new ArrayList<>();
+        if (!Files.isDirectory(payloads)) {
+            return deliveries;
+        }
+        try (Stream<Path> files = Files.list(payloads)) {
+            for (Path file : files.filter(f -> f.toString().endsWith(".json")).sorted().toList()) {
+                JsonNode tree = mapper.readTree(file.toFile());
+                Matcher recorded = RECORDED_PAYLOAD.matcher(file.getFileName().toString());
+                String event = recorded.matches() ? recorded.group(1) : inferEvent(tree);
+                if (event == null) {
+                    err.println("Skipping " + file + ": cannot tell which event it is");
+                    continue;
+                }
+                deliveries.add(new Delivery(file.getFileName().toString(), event, tree, repository(tree)));
+            }
+        }
+        return deliveries;
+    }
+
+    /**
+     * For payloads that were not recorded by quarkus-github-app, guesses the event from the objects it carries.
+     */
+    static String inferEvent(JsonNode tree) {
+        if (tree.has("comment")) {
+            return tree.has("pull_request") ? "pull_request_review_comment" : "issue_comment";
+        }
+        for (String[] event : new String[][] { { "review", "pull_request_review" }, { "pull_request", "pull_request" },
+                { "issue", "issues" }, { "release", "release" }, { "pusher", "push" }, { "zen", "ping" } }) {
+            if (tree.has(event[0])) {
+                return event[1];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the repository of the issue or pull request of the payload, or null
+     */
+    static String repository(JsonNode tree) {
+        String repository = tree.path("repository").path("full_name").asText(null);
+        JsonNode issue = tree.has("issue") ? tree.get("issue") : tree.get("pull_request");
+        if (repository == null || issue == null || !issue.has("number")) {
+            return null;
+        }
+        return repository;
+    }
+
+    static String subject(String repository, String number) {
+        return repository.toLowerCase() + "#" + number;
+    }
+
+    private void deliver(HttpClient client, Delivery delivery) {
+        String subject = null;
+        byte[] payload;
+        try {
+            JsonNode tree = delivery.payload();
+            if (delivery.repository() != null) {
+                // The number is how the stub tells the calls of this handler from the ones of other deliveries
+                String number = Long.toString(nextNumber.getAndIncrement());
+                tree = tree.deepCopy();
+                for (String field : new String[] { "issue", "pull_request" }) {
+                    if (tree.get(field) instanceof ObjectNode issue) {
+                        issue.put("number", Long.parseLong(number));
+                    }
+                }
+                subject = subject(delivery.repository(), number);
+            }
+            payload = mapper.writeValueAsBytes(tree);
+        } catch (IOException e) {
+            err.println(delivery.name() + " could not be serialized: " + e.getMessage());
+            failures.incrementAndGet();
+            return;
+        }
+        HttpRequest.Builder request = HttpRequest.newBuilder(url)
+                .header("Content-Type", "application/json")
+                .header("X-GitHub-Event", delivery.event())
+                .header("X-GitHub-Delivery", UUID.randomUUID().toString())
+                .POST(HttpRequest.BodyPublishers.ofByteArray(payload));
+        if (secret != null) {
+            request.header("X-Hub-Signature-256", "sha256=" + sign(payload));
+        }
+        long sentAt = System.nanoTime();
+        if (subject != null) {
+            // Registered before sending, the handler may call the stub before the bot acknowledges
+            pendingHandlers.put(subject, sentAt);
+        }
+        try {
+            HttpResponse<Void> response = client.send(request.build(), HttpResponse.BodyHandlers.discarding());
+            acknowledgeLatencies.add(System.nanoTime() - sentAt);
+            if (response.statusCode() >= 300) {
+                err.println(delivery.name() + " was rejected with " + response.statusCode());
+                failures.incrementAndGet();
+            }
+        } catch (IOException e) {
+            err.println(delivery.name() + " could not be delivered: " + e.getMessage());
+            failures.incrementAndGet();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private String sign(byte[] payload) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+            return HexFormat.of().formatHex(mac.doFinal(payload));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String webhookSecret() throws IOException {
+        String secret = System.getenv("QUARKUS_GITHUB_APP_WEBHOOK_SECRET");
+        Path env = Path.of(".env");
+        if (secret == null && Files.exists(env)) {
+            for (String line : Files.readAllLines(env)) {
+                if (line.startsWith("QUARKUS_GITHUB_APP_WEBHOOK_SECRET=")) {
+                    secret = line.substring(line.indexOf('=') + 1).trim();
+                }
+            }
+        }
+        return secret == null || secret.isEmpty() ? null : secret;
+    }
+
+    /**
+     * Answers every call with just enough JSON for the GitHub client: an installation token for the app, an
+     * object with an id for everything else.
+     */
+    private HttpServer startStub() throws IOException {
+        // A nanoTime value, unlike the initial 0 which nanoTime values cannot be compared to
+        lastApiCall.set(System.nanoTime());
+        HttpServer stub = HttpServer.create(new InetSocketAddress("localhost", stubPort), 0);
+        stub.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        stub.createContext("/", exchange -> {
+            long now = System.nanoTime();
+            apiCalls.incrementAndGet();
+            lastApiCall.set(now);
+            String path = exchange.getRequestURI().getPath();
+            Matcher issue = ISSUE_PATH.matcher(path);
+            if (issue.find()) {
+                // Only the first call of a handler counts, the later ones are not waiting in any queue
+                Long sentAt = pendingHandlers.remove(subject(issue.group(1), issue.group(2)));
+                if (sentAt != null) {
+                    handlingLatencies.add(now - sentAt);
+                }
+            }
+            try (InputStream body = exchange.getRequestBody()) {
+                body.transferTo(OutputStream.nullOutputStream());
+            }
+            if (ACCESS_TOKEN_PATH.matcher(path).matches()) {
+                respond(exchange, 201, "{\"token\":\"replay\",\"expires_at\":\"2099-01-01T00:00:00Z\",\"permissions\":{}}");
+            } else {
+                respond(exchange, "GET".equals(exchange.getRequestMethod()) ? 200 : 201, "{\"id\":1}");
+            }
+        });
+        stub.start();
+        return stub;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream responseBody = exchange.getResponseBody()) {
+            responseBody.write(body);
+        }
+    }
+
+    static String percentiles(List<Long> latencies) {
+        List<Long> sorted;
+        synchronized (latencies) {
+            sorted = new ArrayList<>(latencies);
+        }
+        if (sorted.isEmpty()) {
+            return "no sample";
+        }
+        Collections.sort(sorted);
+        return String.format("p50 %.1f ms, p99 %.1f ms, max %.1f ms", percentile(sorted, 50), percentile(sorted, 99),
+                sorted.get(sorted.size() - 1) / 1e6);
+    }
+
+    private static double percentile(List<Long> sorted, int percentile) {
+        int rank = (int) Math.ceil(percentile / 100.0 * sorted.size());
+        return sorted.get(Math.max(0, rank - 1)) / 1e6;
+    }
+}
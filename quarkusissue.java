@@ -15,13 +15,37 @@ import java.awt.datatransfer.Clipboard;
 import java.awt.datatransfer.StringSelection;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
 import org.zeroturnaround.exec.ProcessExecutor;
 
 import de.vandermeer.asciitable.AsciiTable;
@@ -36,6 +60,9 @@ import picocli.CommandLine.Option;
         description = "Gathers system info for when reporting Quarkus made with jbang.dev")
 class quarkusissue implements Callable<Integer> {
 
+    static final String[] MAVEN_PLATFORM_PROPERTIES = { "quarkus-plugin.version", "quarkus.platform.artifact-id",
+            "quarkus.platform.group-id", "quarkus.platform.version" };
+
     
     @Option(names={ "-c", "--columns"}, description = "Columns to use for console rendering.")
     Integer columns;
@@ -43,6 +70,16 @@ class quarkusissue implements Callable<Integer> {
     @Option(names={ "-m", "--print-markdown"}, description = "Prints markdown to standard output instead of copying it to clipboard.")
     boolean printMarkdown;
 
+    @Option(names={ "--probe-timeout"}, description = "Seconds after which a command gathering information is abandoned.", defaultValue = "120")
+    int probeTimeout;
+
+    @Option(names={ "--refresh"}, description = "Gathers the information again, even if nothing changed since the previous run.")
+    boolean refresh;
+
+    ExecutorService probes;
+
+    static final String PROBE_TIMED_OUT = "Timed out after ";
+
     boolean isWindows = System.getProperty("os.name")
             .toLowerCase().startsWith("windows");
 
@@ -71,76 +108,446 @@ class quarkusissue implements Callable<Integer> {
     String run(String... command) {
         try {
             System.out.println("Running...[" + String.join(" ", command) + "]...");
-            return new ProcessExecutor().command(command).readOutput(true).execute().outputUTF8();
-        } catch (InterruptedException | TimeoutException | IOException e) {
+            return new ProcessExecutor().command(command).readOutput(true)
+                    .timeout(probeTimeout, TimeUnit.SECONDS).execute().outputUTF8();
+        } catch (TimeoutException e) {
+            return PROBE_TIMED_OUT + probeTimeout + " seconds";
+        } catch (InterruptedException | IOException e) {
             return e.getMessage();
         }
     }
 
-    String mvnproperty(String property) {
-        if(isWindows) {
-            return run("mvn.cmd", "help:evaluate", "-Dexpression=" + property, "-q", "-DforceStdout");
-        } else {
-          return  run("mvn", "help:evaluate", "-Dexpression=" + property, "-q", "-DforceStdout");
-        }
+    /**
+     * Runs the command in the background, so all the commands run at the same time.
+     */
+    <T> CompletableFuture<T> probe(Supplier<T> command) {
+        return CompletableFuture.supplyAsync(command, probes);
     }
 
-    Map<String, String> gatherInfo() throws Exception {
+    String mvn(String... args) {
+        String[] command = new String[args.length + 1];
+        command[0] = isWindows ? "mvn.cmd" : "mvn";
+        System.arraycopy(args, 0, command, 1, args.length);
+        return run(command);
+    }
 
+    /**
+     * Resolves all the properties in a single Maven run: the effective POM holds every property of the project,
+     * interpolated. When Maven times out or fails, its output is reported for every property: evaluating them one
+     * by one would only start as many Maven runs that time out or fail the same way.
+     */
+    Map<String, String> mvnproperties(String... properties) {
         Map<String, String> results = new LinkedHashMap<>();
+        File effectivePom = null;
+        String output = null;
+        try {
+            effectivePom = File.createTempFile("quarkusissue-effective-pom", ".xml");
+            output = mvn("help:effective-pom", "-q", "-Doutput=" + effectivePom.getAbsolutePath());
+            if (output.startsWith(PROBE_TIMED_OUT)) {
+                for (String property : properties) {
+                    results.put(property, output);
+                }
+                return results;
+            }
+            if (effectivePom.length() == 0) {
+                throw new IOException("Maven wrote no effective POM");
+            }
+            Element projectProperties = projectProperties(effectivePom);
+            for (String property : properties) {
+                String value = projectProperties == null ? null : childText(projectProperties, property);
+                results.put(property, value == null ? "N/A" : value);
+            }
+            return results;
+        } catch (IOException | ParserConfigurationException | SAXException e) {
+            // Maven writes no effective POM when the build fails, its output tells why
+            String error = output == null || output.trim().isEmpty() ? e.getMessage() : output;
+            for (String property : properties) {
+                results.put(property, error);
+            }
+            return results;
+        } finally {
+            if (effectivePom != null) {
+                effectivePom.delete();
+            }
+        }
+    }
 
-        if(isWindows) {
-            results.put("ver", run("cmd.exe", "/C", "ver"));
-        } else {
-            results.put("uname -a", run("uname", "-a"));
+    /**
+     * Resolves the properties from the POM and its parents on the file system, without starting Maven. The
+     * properties of a POM override the ones of its parents, and {@code ${...}} references are interpolated.
+     *
+     * @return the values, N/A for the properties no POM defines, or null when only Maven can tell: a parent that
+     *         is not on the file system, a reference to an undefined property, a property a profile or
+     *         {@code .mvn/maven.config} may set, or a POM that cannot be parsed
+     */
+    static Map<String, String> pomProperties(File pom, String... properties) {
+        Map<String, String> model = new HashMap<>();
+        // Whether a profile is active depends on the environment, and -D overrides the POMs
+        Set<String> mavenOnly = mavenConfigProperties(pom);
+        boolean[] child = { true };
+        boolean resolved = walkPoms(pom, (file, project) -> {
+            Element parent = childElement(project, "parent");
+            if (child[0]) {
+                model.put("project.groupId", firstNonNull(childText(project, "groupId"), parent == null ? null : childText(parent, "groupId")));
+                model.put("project.artifactId", childText(project, "artifactId"));
+                model.put("project.version", firstNonNull(childText(project, "version"), parent == null ? null : childText(parent, "version")));
+                child[0] = false;
+            }
+            Element projectProperties = childElement(project, "properties");
+            if (projectProperties != null) {
+                for (Node node = projectProperties.getFirstChild(); node != null; node = node.getNextSibling()) {
+                    if (node instanceof Element) {
+                        model.putIfAbsent(((Element) node).getTagName(), node.getTextContent().trim());
+                    }
+                }
+            }
+            Element profiles = childElement(project, "profiles");
+            if (profiles != null) {
+                NodeList profileProperties = profiles.getElementsByTagName("properties");
+                for (int i = 0; i < profileProperties.getLength(); i++) {
+                    for (Node node = profileProperties.item(i).getFirstChild(); node != null; node = node.getNextSibling()) {
+                        if (node instanceof Element) {
+                            mavenOnly.add(((Element) node).getTagName());
+                        }
+                    }
+                }
+            }
+        });
+        if (!resolved) {
+            return null;
+        }
+        // A reference to one of them is then undefined, which falls back to Maven too
+        model.keySet().removeAll(mavenOnly);
+        Map<String, String> results = new LinkedHashMap<>();
+        for (String property : properties) {
+            if (mavenOnly.contains(property)) {
+                return null;
+            }
+            String value = model.containsKey(property) ? interpolate(model.get(property), model, 0) : "N/A";
+            if (value == null) {
+                return null;
+            }
+            results.put(property, value);
         }
+        return results;
+    }
 
-        results.put("java -version", run("java", "-version"));
+    /**
+     * @return the properties {@code .mvn/maven.config} defines with -D, looked up like Maven does: in the first
+     *         directory containing {@code .mvn}, starting from the one of the POM
+     */
+    static Set<String> mavenConfigProperties(File pom) {
+        Set<String> properties = new HashSet<>();
+        for (File directory = pom.getAbsoluteFile().getParentFile(); directory != null; directory = directory.getParentFile()) {
+            if (!new File(directory, ".mvn").isDirectory()) {
+                continue;
+            }
+            File mavenConfig = new File(directory, ".mvn/maven.config");
+            if (mavenConfig.isFile()) {
+                try {
+                    String[] arguments = new String(Files.readAllBytes(mavenConfig.toPath()), StandardCharsets.UTF_8)
+                            .trim().split("\\s+");
+                    for (int i = 0; i < arguments.length; i++) {
+                        String definition = null;
+                        if (arguments[i].startsWith("-D") && arguments[i].length() > 2) {
+                            definition = arguments[i].substring(2);
+                        } else if ((arguments[i].equals("-D") || arguments[i].equals("--define")) && i + 1 < arguments.length) {
+                            definition = arguments[++i];
+                        }
+                        if (definition != null) {
+                            int equals = definition.indexOf('=');
+                            properties.add(equals < 0 ? definition : definition.substring(0, equals));
+                        }
+                    }
+                } catch (IOException e) {
+                    // Unreadable for us means unreadable for Maven too
+                }
+            }
+            break;
+        }
+        return properties;
+    }
 
-        if(System.getenv("GRAALVM_HOME")!=null) {
-           // results.put("GRAALVM_HOME", System.getenv("GRAALVM_HOME"));
-           if(isWindows) {
-            results.put("graalvm java -version", run(System.getenv("GRAALVM_HOME") + "/bin/java.exe", "-version"));
-           } else {
-            results.put("graalvm java -version", run(System.getenv("GRAALVM_HOME") + "/bin/java", "-version"));
-           }
+    /**
+     * Passes the POM, then each of its parents that Maven reads from the file system, to the visitor.
+     *
+     * @return false if a parent is only in the repositories, or a POM cannot be parsed
+     */
+    static boolean walkPoms(File pom, BiConsumer<File, Element> visitor) {
+        try {
+            File current = pom.getAbsoluteFile();
+            String expectedArtifactId = null;
+            for (int depth = 0; current != null; depth++) {
+                if (!current.isFile() || depth > 20) {
+                    return false;
+                }
+                Element project = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(current)
+                        .getDocumentElement();
+                if (expectedArtifactId != null && !expectedArtifactId.equals(childText(project, "artifactId"))) {
+                    // relativePath points to another project, Maven looks the parent up in the repositories
+                    return false;
+                }
+                visitor.accept(current, project);
+                Element parent = childElement(project, "parent");
+                if (parent == null) {
+                    current = null;
+                } else {
+                    String relativePath = childText(parent, "relativePath");
+                    if (relativePath == null) {
+                        relativePath = "../pom.xml";
+                    } else if (relativePath.isEmpty()) {
+                        // Explicitly resolved from the repositories
+                        return false;
+                    }
+                    current = new File(current.getParentFile(), relativePath);
+                    if (current.isDirectory()) {
+                        current = new File(current, "pom.xml");
+                    }
+                    expectedArtifactId = childText(parent, "artifactId");
+                }
+            }
+            return true;
+        } catch (IOException | ParserConfigurationException | SAXException e) {
+            return false;
         }
+    }
 
-        if(new File("mvnw").exists()) {
-            if(isWindows) {
-                results.put("mvnw --version", run("./mvnw.cmd", "--version"));
-            } else {
-                results.put("mvnw --version", run("./mvnw", "--version"));
+    /**
+     * @return the value with its {@code ${...}} references replaced, or null if one of them is undefined
+     */
+    static String interpolate(String value, Map<String, String> model, int depth) {
+        if (depth > 10) {
+            // Most likely a cycle
+            return null;
+        }
+        StringBuilder result = new StringBuilder();
+        int position = 0;
+        for (int start = value.indexOf("${"); start >= 0; start = value.indexOf("${", position)) {
+            int end = value.indexOf('}', start);
+            if (end < 0) {
+                break;
+            }
+            String reference = model.get(value.substring(start + 2, end));
+            String replacement = reference == null ? null : interpolate(reference, model, depth + 1);
+            if (replacement == null) {
+                return null;
+            }
+            result.append(value, position, start).append(replacement);
+            position = end + 1;
+        }
+        return result.append(value.substring(position)).toString();
+    }
+
+    static String firstNonNull(String first, String second) {
+        return first != null ? first : second;
+    }
+
+    /**
+     * @return the properties of the project, or of the first project of a multi-module build
+     */
+    static Element projectProperties(File effectivePom) throws IOException, ParserConfigurationException, SAXException {
+        Element root = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(effectivePom).getDocumentElement();
+        Element project = "project".equals(root.getTagName()) ? root : childElement(root, "project");
+        return project == null ? null : childElement(project, "properties");
+    }
+
+    static Element childElement(Element parent, String name) {
+        for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child instanceof Element && name.equals(((Element) child).getTagName())) {
+                return (Element) child;
             }
-            results.put("quarkus-plugin.version", mvnproperty("quarkus-plugin.version") );
-            results.put("quarkus.platform.artifact-id", mvnproperty("quarkus.platform.artifact-id"));
-            results.put("quarkus.platform.group-id", mvnproperty("quarkus.platform.group-id"));
-            results.put("quarkus.platform.version", mvnproperty("quarkus.platform.version"));
         }
+        return null;
+    }
+
+    static String childText(Element parent, String name) {
+        Element child = childElement(parent, name);
+        return child == null ? null : child.getTextContent().trim();
+    }
 
+    Map<String, String> gatherInfo() throws Exception {
 
-        if(new File("gradlew").exists()) {
+        Map<String, Future<String>> pending = new LinkedHashMap<>();
+        probes = Executors.newCachedThreadPool();
+        try {
             if(isWindows) {
-                results.put("mvnw --version", run("./gradlew.bat", "--version"));
+                pending.put("ver", probe(() -> run("cmd.exe", "/C", "ver")));
             } else {
-                results.put("mvnw --version", run("./gradlew", "--version"));
+                pending.put("uname -a", probe(() -> run("uname", "-a")));
             }
+
+            pending.put("java -version", probe(() -> run("java", "-version")));
+
+            if(System.getenv("GRAALVM_HOME")!=null) {
+               // results.put("GRAALVM_HOME", System.getenv("GRAALVM_HOME"));
+               if(isWindows) {
+                pending.put("graalvm java -version", probe(() -> run(System.getenv("GRAALVM_HOME") + "/bin/java.exe", "-version")));
+               } else {
+                pending.put("graalvm java -version", probe(() -> run(System.getenv("GRAALVM_HOME") + "/bin/java", "-version")));
+               }
+            }
+
+            if(new File("mvnw").exists()) {
+                if(isWindows) {
+                    pending.put("mvnw --version", probe(() -> run("./mvnw.cmd", "--version")));
+                } else {
+                    pending.put("mvnw --version", probe(() -> run("./mvnw", "--version")));
+                }
+                // Maven only starts when the POMs on disk are not enough, and then once for all the properties
+                Map<String, String> resolved = pomProperties(new File("pom.xml"), MAVEN_PLATFORM_PROPERTIES);
+                CompletableFuture<Map<String, String>> platform = resolved != null
+                        ? CompletableFuture.completedFuture(resolved)
+                        : probe(() -> mvnproperties(MAVEN_PLATFORM_PROPERTIES));
+                for (String property : MAVEN_PLATFORM_PROPERTIES) {
+                    pending.put(property, platform.thenApply(properties -> properties.get(property)));
+                }
+            }
+
+
+            if(new File("gradlew").exists()) {
+                if(isWindows) {
+                    pending.put("mvnw --version", probe(() -> run("./gradlew.bat", "--version")));
+                } else {
+                    pending.put("mvnw --version", probe(() -> run("./gradlew", "--version")));
+                }
+            }
+
+            // Collected in the order the probes were started, whatever the order they finish in
+            Map<String, String> results = new LinkedHashMap<>();
+            for (Map.Entry<String, Future<String>> probe : pending.entrySet()) {
+                results.put(probe.getKey(), probe.getValue().get());
+            }
+
+            if(new File("gradle.properties").exists()) {
+                Properties p = new Properties();
+                try (FileInputStream f = new FileInputStream((new File("gradle.properties")))) {
+                    p.load(f);
+                    results.put("quarkusPluginVersion", p.getProperty("quarkusPluginVersion","N/A") );
+                    results.put("quarkusPlatformGroupId", p.getProperty("quarkusPlatformGroupId", "N/A"));
+                    results.put("quarkusPlatformArtifactId", p.getProperty("quarkusPlatformArtifactId", "N/A"));
+                    results.put("quarkusPlatformVersion", p.getProperty("quarkusPlatformVersion", "N/A"));
+                }
+            }
+
+            return results;
+        } finally {
+            probes.shutdownNow();
         }
+    }
 
-        if(new File("gradle.properties").exists()) {
-            Properties p = new Properties();
-            try (FileInputStream f = new FileInputStream((new File("gradle.properties")))) {
-                p.load(f);
-                results.put("quarkusPluginVersion", p.getProperty("quarkusPluginVersion","N/A") );
-                results.put("quarkusPlatformGroupId", p.getProperty("quarkusPlatformGroupId", "N/A"));
-                results.put("quarkusPlatformArtifactId", p.getProperty("quarkusPlatformArtifactId", "N/A"));
-                results.put("quarkusPlatformVersion", p.getProperty("quarkusPlatformVersion", "N/A"));
+    /**
+     * Everything the gathered information depends on: the build files, the JDKs and the PATH. The mtime of the
+     * PATH directories and of the java found on the PATH catch tools installed or switched in place.
+     */
+    String fingerprint() throws IOException {
+        StringBuilder fingerprint = new StringBuilder();
+        fingerprint.append("cwd=").append(new File(".").getCanonicalPath()).append('\n');
+        // The wrapper properties decide the version the wrappers report
+        for (String file : new String[] { "pom.xml", "gradle.properties", "mvnw", "gradlew",
+                ".mvn/wrapper/maven-wrapper.properties", ".mvn/maven.config", "gradle/wrapper/gradle-wrapper.properties" }) {
+            fingerprint.append(file).append('=').append(new File(file).lastModified()).append('\n');
+        }
+        // The parent POMs pomProperties reads
+        walkPoms(new File("pom.xml"), (pom, project) -> fingerprint.append(pom).append('=').append(pom.lastModified()).append('\n'));
+        fingerprint.append("JAVA_HOME=").append(System.getenv("JAVA_HOME")).append('\n');
+        fingerprint.append("GRAALVM_HOME=").append(System.getenv("GRAALVM_HOME")).append('\n');
+        String path = System.getenv("PATH");
+        fingerprint.append("PATH=").append(path).append('\n');
+        if (path != null) {
+            boolean javaFound = false;
+            for (String entry : path.split(File.pathSeparator)) {
+                File dir = new File(entry);
+                fingerprint.append(entry).append('=').append(dir.lastModified()).append('\n');
+                File java = new File(dir, isWindows ? "java.exe" : "java");
+                if (!javaFound && java.isFile()) {
+                    File realJava = java.getCanonicalFile();
+                    fingerprint.append("java=").append(realJava).append('=').append(realJava.lastModified()).append('\n');
+                    javaFound = true;
+                }
             }
         }
+        return sha256(fingerprint.toString());
+    }
+
+    /**
+     * One snapshot per project directory.
+     */
+    static File snapshotFile() throws IOException {
+        File dir = new File(System.getProperty("user.home"), ".quarkusissue");
+        return new File(dir, sha256(new File(".").getCanonicalPath()) + ".properties");
+    }
 
+    /**
+     * @return the information of the snapshot, or null if there is none or it was taken with another fingerprint
+     */
+    static Map<String, String> loadSnapshot(File snapshot, String fingerprint) {
+        if (!snapshot.isFile()) {
+            return null;
+        }
+        Properties p = new Properties();
+        try (FileInputStream f = new FileInputStream(snapshot)) {
+            p.load(f);
+        } catch (IOException e) {
+            return null;
+        }
+        if (!fingerprint.equals(p.getProperty("fingerprint"))) {
+            return null;
+        }
+        Map<String, String> results = new LinkedHashMap<>();
+        int entries;
+        try {
+            entries = Integer.parseInt(p.getProperty("entries", "0"));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        for (int i = 0; i < entries; i++) {
+            String key = p.getProperty("entry." + i + ".key");
+            String value = p.getProperty("entry." + i + ".value");
+            if (key == null || value == null) {
+                return null;
+            }
+            results.put(key, value);
+        }
         return results;
     }
 
+    static void saveSnapshot(File snapshot, String fingerprint, Map<String, String> results) {
+        for (String value : results.values()) {
+            if (value.startsWith(PROBE_TIMED_OUT)) {
+                // Worth trying again next time
+                return;
+            }
+        }
+        // Indexed keys, since Properties does not keep the order
+        Properties p = new Properties();
+        p.setProperty("fingerprint", fingerprint);
+        p.setProperty("entries", String.valueOf(results.size()));
+        int i = 0;
+        for (Map.Entry<String, String> result : results.entrySet()) {
+            p.setProperty("entry." + i + ".key", result.getKey());
+            p.setProperty("entry." + i + ".value", result.getValue());
+            i++;
+        }
+        snapshot.getParentFile().mkdirs();
+        try (FileOutputStream f = new FileOutputStream(snapshot)) {
+            p.store(f, "quarkusissue snapshot");
+        } catch (IOException e) {
+            // Only a cache
+        }
+    }
+
+    static String sha256(String value) {
+        try {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8))) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     void print(Map<String, String> results) throws Exception {
 
         int[] maxkey = { 0 };
@@ -189,9 +596,16 @@ class quarkusissue implements Callable<Integer> {
     @Override
     public Integer call() throws Exception { // your business logic goes here...
 
-        out.println("Gathering information...");
-
-        Map<String, String> info = gatherInfo();
+        String fingerprint = fingerprint();
+        File snapshot = snapshotFile();
+        Map<String, String> info = refresh ? null : loadSnapshot(snapshot, fingerprint);
+        if (info != null) {
+            out.println("Nothing changed since " + new Date(snapshot.lastModified()) + ", reusing the information gathered then. Use --refresh to gather it again.");
+        } else {
+            out.println("Gathering information...");
+            info = gatherInfo();
+            saveSnapshot(snapshot, fingerprint, info);
+        }
 
         print(info);
 